@@ -17,10 +17,43 @@ import java.sql.Statement;
  * <br/><br/>
  * The MadnessDatabase must be initialized before using this class, since
  * that is used to get a database connection.
+ * <br/><br/>
+ * The tables are created as schema version zero, and the SchemaVersion
+ * table is dropped, so the SchemaMigrator then brings them up to date
+ * (adding the indexes, for instance), just as for an older database.  The
+ * tables added by later versions, such as the email outbox, are dropped
+ * too, so they can be created again.
  */
 public class BaseDataSet extends Object
   {
 
+  static final String PLAYER_DDL = "create table Player ("
+        + "\n  id int generated by default as identity,"
+        + "\n  username varchar(30),"
+        + "\n  active smallint,"
+        + "\n  password varchar(30),"
+        + "\n  firstName varchar(20),"
+        + "\n  lastName varchar(30),"
+        + "\n  nickname varchar(30),"
+        + "\n  email varchar(100),"
+        + "\n  admin smallint,"
+        + "\n  constraint playerPK primary key (id))";
+  static final String PICK_DDL = "create table Pick ("
+        + "\n  playerID int,"
+        + "\n  points int,"
+        + "\n  teamID int,"
+        + "\n  constraint pickPK primary key (playerID, points))";
+  static final String GAME_DDL = "create table Game ("
+        + "\n  id int generated by default as identity,"
+        + "\n  round int,"
+        + "\n  position int,"
+        + "\n  team1ID int,"
+        + "\n  team2ID int,"
+        + "\n  winningTeamID int,"
+        + "\n  constraint gamekPK primary key (id))";
+
+
+
   /**
    * Create or recreate any base data needed.
    */
@@ -30,6 +63,7 @@ public class BaseDataSet extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
+      DropMigratedTables(connection);
       createPlayers(connection);
       createTeams(connection);
       createPicks(connection);
@@ -46,19 +80,8 @@ public class BaseDataSet extends Object
 
   private void createPlayers(Connection connection) throws SQLException
     {
-    dropTable(connection, "Player");
-    String ddl = "create table Player ("
-          + "\n  id int generated by default as identity,"
-          + "\n  username varchar(30),"
-          + "\n  active smallint,"
-          + "\n  password varchar(30),"
-          + "\n  firstName varchar(20),"
-          + "\n  lastName varchar(30),"
-          + "\n  nickname varchar(30),"
-          + "\n  email varchar(100),"
-          + "\n  admin smallint,"
-          + "\n  constraint playerPK primary key (id))";
-    connection.createStatement().execute(ddl);
+    DropTable(connection, "Player");
+    connection.createStatement().execute(PLAYER_DDL);
     PlayerManager playerMan = PlayerManager.GetInstance();
     playerMan.insert(new Player("admin", true, "password", "Ralph", "McAdmin", "Root", "ralph@admin.com", true));
     playerMan.insert(new Player("player1", true, "one", "Tom", "Tallboy", "Tipsy", null, false));
@@ -71,7 +94,7 @@ public class BaseDataSet extends Object
 
   private void createTeams(Connection connection) throws SQLException
     {
-    dropTable(connection, "Team");
+    DropTable(connection, "Team");
     String ddl = "create table Team ("
           + "\n  id int generated by default as identity,"
           + "\n  rank int,"
@@ -152,28 +175,15 @@ public class BaseDataSet extends Object
 
   private void createPicks(Connection connection) throws SQLException
     {
-    dropTable(connection, "Pick");
-    String ddl = "create table Pick ("
-          + "\n  playerID int,"
-          + "\n  points int,"
-          + "\n  teamID int,"
-          + "\n  constraint pickPK primary key (playerID, points))";
-    connection.createStatement().execute(ddl);
+    DropTable(connection, "Pick");
+    connection.createStatement().execute(PICK_DDL);
     }
 
 
   private void createGames(Connection connection) throws SQLException
     {
-    dropTable(connection, "Game");
-    String ddl = "create table Game ("
-          + "\n  id int generated by default as identity,"
-          + "\n  round int,"
-          + "\n  position int,"
-          + "\n  team1ID int,"
-          + "\n  team2ID int,"
-          + "\n  winningTeamID int,"
-          + "\n  constraint gamekPK primary key (id))";
-    connection.createStatement().execute(ddl);
+    DropTable(connection, "Game");
+    connection.createStatement().execute(GAME_DDL);
     GameManager gameMan = GameManager.GetInstance();
     int[] rankPositionMap = { 1, 16, 8, 9, 5, 12, 4, 13, 6, 11, 3, 14, 7, 10, 2, 15 };
     for (int round = 0; round < 6; round++)
@@ -190,13 +200,27 @@ public class BaseDataSet extends Object
     }
 
 
+  /**
+   * Drop the tables that only the schema migrator creates, so that it
+   * starts again from version zero.
+   *
+   * @param connection a database connection to use
+   */
+  static void DropMigratedTables(Connection connection)
+    {
+    DropTable(connection, "SchemaVersion");
+    DropTable(connection, "OutboxMessage");
+    DropTable(connection, "MailJob");
+    }
+
+
   /**
    * Drop a table, and don't mind if it wasn't there already.
    *
    * @param connection a database connection to use
    * @param tableName the name of the table to be dropped
    */
-  private void dropTable(Connection connection, String tableName)
+  static void DropTable(Connection connection, String tableName)
     {
     try
       {
@@ -0,0 +1,749 @@
+package com.chipsandwaycool.entity;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This is a bounded pool of JDBC connections, owned by the MadnessDatabase.
+ * Client code never sees the physical connections:  'borrow()' returns a
+ * lightweight handle whose 'close()' method hands the physical connection
+ * back to the pool, so the managers' usual try/finally blocks work unchanged.
+ * <br/><br/>
+ * Up to 'maxSize' physical connections are opened, and 'minSize' of them are
+ * opened up front and kept even when idle.  An idle connection is validated
+ * before it is lent out again, and a borrower who finds every connection in
+ * use waits at most the borrow timeout before getting an SQLException.  A
+ * housekeeping timer reports any connection held longer than the leak
+ * threshold, and closes surplus connections that have sat idle for a while.
+ * With leak tracing on, each borrow also records its stack trace, so a
+ * report can say who borrowed the connection; that is off by default,
+ * since it costs a stack walk on every borrow.  A connection borrowed for
+ * streaming, such as one feeding a download, is expected to be held for as
+ * long as the client takes to read, so it is never reported.
+ * <br/><br/>
+ * Each physical connection also keeps a small cache of prepared statements,
+ * keyed by SQL text.  Calling 'prepareStatement(sql)' on a handle returns
+ * the cached statement when there is one, so Derby compiles each distinct
+ * query once per connection rather than once per call.  Closing a cached
+ * statement only clears its parameters and closes its result sets.
+ */
+public class ConnectionPool extends Object
+  {
+
+  public static final int DEFAULT_MIN_SIZE = 2;
+  public static final int DEFAULT_MAX_SIZE = 20;
+  public static final long DEFAULT_BORROW_TIMEOUT = 10000;
+  public static final long DEFAULT_LEAK_THRESHOLD = 60000;
+
+  private static final long IDLE_TIMEOUT = 300000;
+  private static final long HOUSEKEEPING_INTERVAL = 15000;
+  private static final String VALIDATION_QUERY = "values 1";
+  private static final int STATEMENT_CACHE_SIZE = 32;
+
+  private String        m_connectionString = null;
+  private int           m_minSize = DEFAULT_MIN_SIZE;
+  private int           m_maxSize = DEFAULT_MAX_SIZE;
+  private long          m_borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+  private long          m_leakThreshold = DEFAULT_LEAK_THRESHOLD;
+  private boolean       m_leakTracing = false;
+  private LinkedList    m_idle = new LinkedList();
+  private List          m_active = new ArrayList();
+  private int           m_openCount = 0;
+  private boolean       m_closed = false;
+  private Timer         m_housekeeper = null;
+
+  private long          m_borrowCount = 0;
+  private long          m_borrowWaitTotal = 0;
+  private long          m_borrowWaitMax = 0;
+  private long          m_timeoutCount = 0;
+  private long          m_validationFailureCount = 0;
+  private long          m_leakCount = 0;
+  private long          m_statementCacheHits = 0;
+  private long          m_statementCacheMisses = 0;
+
+
+
+  /**
+   * Create a pool of connections for the given JDBC connection string, and
+   * open the minimum number of connections right away.
+   *
+   * @param connectionString the full JDBC URL used to open connections
+   * @param minSize the number of connections to keep open, even when idle
+   * @param maxSize the most connections ever open at once
+   * @param borrowTimeout how many milliseconds a borrower may wait
+   * @param leakThreshold how many milliseconds a connection may be held before it is reported
+   * @param leakTracing whether to record where each connection was borrowed, for leak reports
+   */
+  public ConnectionPool(String connectionString, int minSize, int maxSize,
+        long borrowTimeout, long leakThreshold, boolean leakTracing) throws SQLException
+    {
+    if ((minSize < 0) || (maxSize < 1) || (minSize > maxSize))
+      throw new IllegalArgumentException("A connection pool can't be sized with a minimum of " + minSize + " and a maximum of " + maxSize + ".");
+    m_connectionString = connectionString;
+    m_minSize = minSize;
+    m_maxSize = maxSize;
+    m_borrowTimeout = borrowTimeout;
+    m_leakThreshold = leakThreshold;
+    m_leakTracing = leakTracing;
+    for (int i = 0; i < m_minSize; i++)
+      {
+      m_idle.add(new PooledConnection(open()));
+      m_openCount++;
+      }
+    m_housekeeper = new Timer("ConnectionPool housekeeper", true);
+    m_housekeeper.schedule(new TimerTask()
+      {
+      public void run()
+        {
+        doHousekeeping();
+        }
+      }, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL);
+    }
+
+
+  /**
+   * Lend out a connection, opening a new one if none is idle and the pool
+   * has room to grow, or else waiting for one to be returned.  The caller
+   * must close the returned connection, which gives it back to this pool.
+   *
+   * @return a connection handle, good until it is closed
+   */
+  public Connection borrow() throws SQLException
+    {
+    return borrow(false);
+    }
+
+
+  /**
+   * Lend out a connection, as 'borrow()' does.  A streaming borrow may be
+   * held for as long as a slow client keeps reading, so the housekeeper
+   * doesn't report it as a leak, however long it's held.
+   *
+   * @param streaming whether the connection will be held while output streams out
+   * @return a connection handle, good until it is closed
+   */
+  public Connection borrow(boolean streaming) throws SQLException
+    {
+    long start = System.currentTimeMillis();
+    long deadline = start + m_borrowTimeout;
+    PooledConnection pooled = null;
+    while (pooled == null)
+      {
+      boolean openNew = false;
+      synchronized (this)
+        {
+        while (!m_closed && m_idle.isEmpty() && (m_openCount >= m_maxSize))
+          {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0)
+            {
+            m_timeoutCount++;
+            throw new SQLException("No database connection became available within " + m_borrowTimeout + " ms.  All " + m_maxSize + " connections are in use.");
+            }
+          try
+            {
+            wait(remaining);
+            }
+          catch (InterruptedException exception)
+            {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.");
+            }
+          }
+        if (m_closed)
+          throw new SQLException("This connection pool has been shut down.");
+        if (!m_idle.isEmpty())
+          pooled = (PooledConnection)(m_idle.removeFirst());
+        else
+          {
+          m_openCount++;
+          openNew = true;
+          }
+        }
+      if (openNew)
+        {
+        try
+          {
+          pooled = new PooledConnection(open());
+          }
+        catch (SQLException exception)
+          {
+          synchronized (this)
+            {
+            m_openCount--;
+            notifyAll();
+            }
+          throw exception;
+          }
+        }
+      else if (!validate(pooled))
+        {
+        synchronized (this)
+          {
+          m_validationFailureCount++;
+          }
+        discard(pooled);
+        pooled = null;
+        }
+      }
+    long wait = System.currentTimeMillis() - start;
+    synchronized (this)
+      {
+      m_borrowCount++;
+      m_borrowWaitTotal += wait;
+      if (wait > m_borrowWaitMax)
+        m_borrowWaitMax = wait;
+      pooled.m_borrowedAt = System.currentTimeMillis();
+      pooled.m_borrower = m_leakTracing ? new Throwable("Connection borrowed here") : null;
+      pooled.m_streaming = streaming;
+      pooled.m_leakReported = false;
+      m_active.add(pooled);
+      }
+    return (Connection)(Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class[] { Connection.class }, new ConnectionHandle(pooled)));
+    }
+
+
+  /**
+   * Take back a connection whose handle has been closed.  Any transaction
+   * left open is rolled back first; if that fails, the physical connection
+   * is presumed broken and is discarded instead of reused.
+   *
+   * @param pooled the pooled connection being returned
+   */
+  private void release(PooledConnection pooled)
+    {
+    boolean healthy = true;
+    try
+      {
+      if (!pooled.m_connection.getAutoCommit())
+        {
+        pooled.m_connection.rollback();
+        pooled.m_connection.setAutoCommit(true);
+        }
+      }
+    catch (SQLException exception)
+      {
+      healthy = false;
+      }
+    synchronized (this)
+      {
+      m_active.remove(pooled);
+      pooled.m_borrower = null;
+      if (healthy && !m_closed)
+        {
+        pooled.m_idleSince = System.currentTimeMillis();
+        m_idle.addFirst(pooled);
+        notifyAll();
+        return;
+        }
+      }
+    discard(pooled);
+    }
+
+
+  /**
+   * Close a physical connection and give its slot back to the pool.
+   *
+   * @param pooled the pooled connection to be thrown away
+   */
+  private void discard(PooledConnection pooled)
+    {
+    try { pooled.m_connection.close(); }
+    catch (SQLException ignored) { }
+    synchronized (this)
+      {
+      m_openCount--;
+      notifyAll();
+      }
+    }
+
+
+  /**
+   * Return whether an idle connection still works, by running a trivial
+   * query on it.
+   *
+   * @param pooled the idle connection to be checked
+   * @return whether the connection can be lent out
+   */
+  private boolean validate(PooledConnection pooled)
+    {
+    Statement statement = null;
+    try
+      {
+      if (pooled.m_connection.isClosed())
+        return false;
+      statement = pooled.m_connection.createStatement();
+      ResultSet result = statement.executeQuery(VALIDATION_QUERY);
+      result.close();
+      return true;
+      }
+    catch (SQLException exception)
+      {
+      return false;
+      }
+    finally
+      {
+      if (statement != null)
+        try { statement.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Return a prepared statement for 'sql' from the given connection's cache,
+   * preparing and caching it on a miss.  If the cached statement is already
+   * checked out through the same borrow, prepare a separate, uncached one so
+   * the two don't clobber each other's parameters and results.
+   *
+   * @param pooled the pooled connection the statement belongs to
+   * @param sql the SQL text of the statement
+   * @param connectionProxy the handle the statement is being prepared through
+   * @return a prepared statement, ready for parameters
+   */
+  private PreparedStatement prepareCached(PooledConnection pooled, String sql,
+        Object connectionProxy) throws SQLException
+    {
+    CachedStatement cached = (CachedStatement)(pooled.m_statementCache.get(sql));
+    if ((cached != null) && !cached.m_inUse)
+      {
+      synchronized (this)
+        {
+        m_statementCacheHits++;
+        }
+      }
+    else
+      {
+      synchronized (this)
+        {
+        m_statementCacheMisses++;
+        }
+      PreparedStatement statement = pooled.m_connection.prepareStatement(sql);
+      if (cached != null)
+        return statement;
+      cached = new CachedStatement(statement);
+      pooled.m_statementCache.put(sql, cached);
+      }
+    cached.m_inUse = true;
+    return (PreparedStatement)(Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+          new Class[] { PreparedStatement.class }, new StatementHandle(cached, connectionProxy)));
+    }
+
+
+  /**
+   * Open a new physical connection.
+   *
+   * @return a new database connection
+   */
+  private Connection open() throws SQLException
+    {
+    return DriverManager.getConnection(m_connectionString);
+    }
+
+
+  /**
+   * Report connections which have been borrowed for longer than the leak
+   * threshold, and close surplus idle connections which haven't been used
+   * for a while.  This is run periodically by the housekeeping timer.
+   */
+  private void doHousekeeping()
+    {
+    List stale = new ArrayList();
+    synchronized (this)
+      {
+      long now = System.currentTimeMillis();
+      for (Iterator i = m_active.iterator(); i.hasNext(); )
+        {
+        PooledConnection pooled = (PooledConnection)(i.next());
+        if (!pooled.m_leakReported && !pooled.m_streaming && ((now - pooled.m_borrowedAt) > m_leakThreshold))
+          {
+          pooled.m_leakReported = true;
+          m_leakCount++;
+          System.out.println("A database connection has been held for " + (now - pooled.m_borrowedAt) + " ms, and may have been leaked"
+                + ((pooled.m_borrower != null) ? ":" : ".  (Turn on leak tracing to see where it was borrowed.)"));
+          if (pooled.m_borrower != null)
+            pooled.m_borrower.printStackTrace();
+          }
+        }
+      while ((m_openCount - stale.size() > m_minSize) && !m_idle.isEmpty()
+            && ((now - ((PooledConnection)(m_idle.getLast())).m_idleSince) > IDLE_TIMEOUT))
+        stale.add(m_idle.removeLast());
+      }
+    for (Iterator i = stale.iterator(); i.hasNext(); )
+      discard((PooledConnection)(i.next()));
+    }
+
+
+  /**
+   * Shut down this pool, closing all idle connections now and any borrowed
+   * ones as they are returned.  Waiting borrowers get an SQLException.
+   */
+  public void close()
+    {
+    List idle = null;
+    synchronized (this)
+      {
+      m_closed = true;
+      idle = new ArrayList(m_idle);
+      m_idle.clear();
+      notifyAll();
+      }
+    m_housekeeper.cancel();
+    for (Iterator i = idle.iterator(); i.hasNext(); )
+      discard((PooledConnection)(i.next()));
+    }
+
+
+  /**
+   * Return the number of connections currently lent out.
+   *
+   * @return the number of active connections
+   */
+  public synchronized int getActiveCount()
+    {
+    return m_active.size();
+    }
+
+
+  /**
+   * Return the number of open connections waiting to be borrowed.
+   *
+   * @return the number of idle connections
+   */
+  public synchronized int getIdleCount()
+    {
+    return m_idle.size();
+    }
+
+
+  /**
+   * Return the total number of successful 'borrow()' calls.
+   *
+   * @return the number of connections lent out so far
+   */
+  public synchronized long getBorrowCount()
+    {
+    return m_borrowCount;
+    }
+
+
+  /**
+   * Return the total time borrowers have spent waiting for connections.
+   *
+   * @return the cumulative borrow wait, in milliseconds
+   */
+  public synchronized long getBorrowWaitTotal()
+    {
+    return m_borrowWaitTotal;
+    }
+
+
+  /**
+   * Return the longest time any one borrower has waited for a connection.
+   *
+   * @return the maximum borrow wait, in milliseconds
+   */
+  public synchronized long getBorrowWaitMax()
+    {
+    return m_borrowWaitMax;
+    }
+
+
+  /**
+   * Return the number of borrowers who gave up waiting for a connection.
+   *
+   * @return the number of borrow timeouts
+   */
+  public synchronized long getTimeoutCount()
+    {
+    return m_timeoutCount;
+    }
+
+
+  /**
+   * Return the number of idle connections found broken when borrowed.
+   *
+   * @return the number of failed validations
+   */
+  public synchronized long getValidationFailureCount()
+    {
+    return m_validationFailureCount;
+    }
+
+
+  /**
+   * Return the number of connections reported as possibly leaked.
+   *
+   * @return the number of leak reports
+   */
+  public synchronized long getLeakCount()
+    {
+    return m_leakCount;
+    }
+
+
+  /**
+   * Return the number of 'prepareStatement()' calls answered from a cache.
+   *
+   * @return the number of statement cache hits
+   */
+  public synchronized long getStatementCacheHits()
+    {
+    return m_statementCacheHits;
+    }
+
+
+  /**
+   * Return the number of 'prepareStatement()' calls which had to prepare
+   * a new statement.
+   *
+   * @return the number of statement cache misses
+   */
+  public synchronized long getStatementCacheMisses()
+    {
+    return m_statementCacheMisses;
+    }
+
+
+  /**
+   * Return a one-line summary of this pool's state and counters.
+   *
+   * @return my statistics as a string
+   */
+  public synchronized String toString()
+    {
+    return "active " + m_active.size() + ", idle " + m_idle.size()
+          + ", max " + m_maxSize + ", borrows " + m_borrowCount
+          + ", total wait " + m_borrowWaitTotal + " ms, max wait " + m_borrowWaitMax
+          + " ms, timeouts " + m_timeoutCount + ", validation failures "
+          + m_validationFailureCount + ", leaks " + m_leakCount
+          + ", statement cache hits " + m_statementCacheHits + ", misses "
+          + m_statementCacheMisses;
+    }
+
+
+
+  /**
+   * One physical connection in the pool, plus the bookkeeping the pool
+   * keeps about it.
+   */
+  private static class PooledConnection extends Object
+    {
+
+    Connection    m_connection = null;
+    long          m_borrowedAt = 0;
+    long          m_idleSince = System.currentTimeMillis();
+    Throwable     m_borrower = null;
+    boolean       m_streaming = false;
+    boolean       m_leakReported = false;
+    Map           m_statementCache = new LinkedHashMap(16, 0.75f, true)
+      {
+      protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+        if (size() <= STATEMENT_CACHE_SIZE)
+          return false;
+        ((CachedStatement)(eldest.getValue())).evict();
+        return true;
+        }
+      };
+
+
+    PooledConnection(Connection connection)
+      {
+      m_connection = connection;
+      }
+
+    }
+
+
+
+  /**
+   * A prepared statement living in a connection's statement cache.  It is
+   * only ever checked out by one handle at a time.
+   */
+  private static class CachedStatement extends Object
+    {
+
+    PreparedStatement   m_statement = null;
+    boolean             m_inUse = false;
+    boolean             m_evicted = false;
+
+
+    CachedStatement(PreparedStatement statement)
+      {
+      m_statement = statement;
+      }
+
+
+    /**
+     * Drop this statement from its cache, closing it now unless it is in use,
+     * in which case it is closed when it's handed back.
+     */
+    void evict()
+      {
+      m_evicted = true;
+      if (!m_inUse)
+        try { m_statement.close(); }
+        catch (SQLException ignored) { }
+      }
+
+    }
+
+
+
+  /**
+   * This is the invocation handler behind each checked-out cached statement.
+   * Closing it hands the statement back to the cache, closing whatever
+   * result sets it produced, instead of closing the statement itself.
+   */
+  private static class StatementHandle extends Object implements InvocationHandler
+    {
+
+    private CachedStatement   m_cached = null;
+    private Object            m_connectionProxy = null;
+    private List              m_results = new ArrayList(2);
+
+
+    StatementHandle(CachedStatement cached, Object connectionProxy)
+      {
+      m_cached = cached;
+      m_connectionProxy = connectionProxy;
+      }
+
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+      String name = method.getName();
+      if ("close".equals(name) && (args == null))
+        {
+        if (m_cached != null)
+          {
+          CachedStatement cached = m_cached;
+          m_cached = null;
+          for (Iterator i = m_results.iterator(); i.hasNext(); )
+            try { ((ResultSet)(i.next())).close(); }
+            catch (SQLException ignored) { }
+          m_results.clear();
+          try { cached.m_statement.clearParameters(); }
+          catch (SQLException ignored) { }
+          cached.m_inUse = false;
+          if (cached.m_evicted)
+            try { cached.m_statement.close(); }
+            catch (SQLException ignored) { }
+          }
+        return null;
+        }
+      if ("isClosed".equals(name) && (args == null))
+        return Boolean.valueOf(m_cached == null);
+      if ("equals".equals(name) && (args != null) && (args.length == 1))
+        return Boolean.valueOf(proxy == args[0]);
+      if ("hashCode".equals(name) && (args == null))
+        return new Integer(System.identityHashCode(proxy));
+      if ("toString".equals(name) && (args == null))
+        return "Cached statement " + ((m_cached != null) ? m_cached.m_statement.toString() : "(closed)");
+      if (m_cached == null)
+        throw new SQLException("This statement has already been closed.");
+      if ("getConnection".equals(name) && (args == null))
+        return m_connectionProxy;
+      try
+        {
+        Object result = method.invoke(m_cached.m_statement, args);
+        if (result instanceof ResultSet)
+          m_results.add(result);
+        return result;
+        }
+      catch (InvocationTargetException exception)
+        {
+        throw exception.getTargetException();
+        }
+      }
+
+    }
+
+
+
+  /**
+   * This is the invocation handler behind each borrowed connection proxy.
+   * It forwards calls to the physical connection until the handle is closed,
+   * closes any statements created through the handle at that point, and
+   * then returns the physical connection to the pool.
+   */
+  private class ConnectionHandle extends Object implements InvocationHandler
+    {
+
+    private PooledConnection  m_pooled = null;
+    private List              m_statements = new ArrayList();
+
+
+    ConnectionHandle(PooledConnection pooled)
+      {
+      m_pooled = pooled;
+      }
+
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+      String name = method.getName();
+      if ("close".equals(name) && (args == null))
+        {
+        if (m_pooled != null)
+          {
+          PooledConnection pooled = m_pooled;
+          m_pooled = null;
+          for (Iterator i = m_statements.iterator(); i.hasNext(); )
+            try { ((Statement)(i.next())).close(); }
+            catch (SQLException ignored) { }
+          m_statements.clear();
+          release(pooled);
+          }
+        return null;
+        }
+      if ("isClosed".equals(name) && (args == null))
+        return Boolean.valueOf((m_pooled == null) || m_pooled.m_connection.isClosed());
+      if ("equals".equals(name) && (args != null) && (args.length == 1))
+        return Boolean.valueOf(proxy == args[0]);
+      if ("hashCode".equals(name) && (args == null))
+        return new Integer(System.identityHashCode(proxy));
+      if ("toString".equals(name) && (args == null))
+        return "Pooled connection " + ((m_pooled != null) ? m_pooled.m_connection.toString() : "(closed)");
+      if (m_pooled == null)
+        throw new SQLException("This connection has already been returned to the pool.");
+      if ("prepareStatement".equals(name) && (args != null) && (args.length == 1))
+        {
+        PreparedStatement statement = prepareCached(m_pooled, (String)(args[0]), proxy);
+        m_statements.add(statement);
+        return statement;
+        }
+      try
+        {
+        Object result = method.invoke(m_pooled.m_connection, args);
+        if (result instanceof Statement)
+          m_statements.add(result);
+        return result;
+        }
+      catch (InvocationTargetException exception)
+        {
+        throw exception.getTargetException();
+        }
+      }
+
+    }
+
+  }
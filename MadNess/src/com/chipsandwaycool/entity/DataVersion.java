@@ -0,0 +1,50 @@
+package com.chipsandwaycool.entity;
+
+/**
+ * This is a version counter for a body of data, along with the time it was
+ * last changed.  Whatever owns the data increments it after every change,
+ * so that anything derived from the data--a cached fragment, or a page a
+ * browser already has--can be checked for staleness cheaply.
+ */
+public class DataVersion extends Object
+  {
+
+  private long    m_version = 0;
+  private long    m_modifiedTime = System.currentTimeMillis();
+
+
+
+  /**
+   * Record a change to the data.
+   */
+  public synchronized void increment()
+    {
+    m_version++;
+    m_modifiedTime = System.currentTimeMillis();
+    }
+
+
+  /**
+   * Return the current version, which starts at zero when the application
+   * does.
+   *
+   * @return the version number
+   */
+  public synchronized long getVersion()
+    {
+    return m_version;
+    }
+
+
+  /**
+   * Return the time of the last change, or of startup if there hasn't been
+   * one.
+   *
+   * @return the time of the last change, in milliseconds
+   */
+  public synchronized long getModifiedTime()
+    {
+    return m_modifiedTime;
+    }
+
+  }
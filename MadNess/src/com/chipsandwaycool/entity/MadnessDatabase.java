@@ -10,14 +10,24 @@ import java.net.InetAddress;
  * This is an object for initializing the data store (Derby) and doling out
  * connections to it.  It needs to be initialized before the singleton
  * 'GetInstance()' method can be called.
+ * <br/><br/>
+ * Connections come from a bounded ConnectionPool, so closing one returns it
+ * to the pool rather than closing it with Derby.  The pool's limits can be
+ * set with 'ConfigurePool()' before 'Initialize()' is called.
  */
 public class MadnessDatabase extends Object
   {
 
   private static MadnessDatabase Instance = null;
+  private static int PoolMinSize = ConnectionPool.DEFAULT_MIN_SIZE;
+  private static int PoolMaxSize = ConnectionPool.DEFAULT_MAX_SIZE;
+  private static long PoolBorrowTimeout = ConnectionPool.DEFAULT_BORROW_TIMEOUT;
+  private static long PoolLeakThreshold = ConnectionPool.DEFAULT_LEAK_THRESHOLD;
+  private static boolean PoolLeakTracing = false;
 
   private NetworkServerControl  m_derbyServer = null;
   private String                m_databaseURL = null;
+  private ConnectionPool        m_pool = null;
 
 
 
@@ -37,6 +47,30 @@ public class MadnessDatabase extends Object
       m_derbyServer.start(null);
       Class.forName("org.apache.derby.jdbc.ClientDriver");
       }
+    m_pool = new ConnectionPool(m_databaseURL + ";create=true", PoolMinSize,
+          PoolMaxSize, PoolBorrowTimeout, PoolLeakThreshold, PoolLeakTracing);
+    }
+
+
+  /**
+   * Set the limits for the connection pool.  This must be called before
+   * 'Initialize()' to have any effect.  Note that building the base data
+   * set holds two connections at once, so 'maxSize' should be at least two.
+   *
+   * @param minSize the number of connections kept open even when idle
+   * @param maxSize the most connections open at once
+   * @param borrowTimeout how many milliseconds to wait for a free connection
+   * @param leakThreshold how many milliseconds a connection may be held before it is reported as leaked
+   * @param leakTracing whether leak reports should say where the connection was borrowed
+   */
+  public static void ConfigurePool(int minSize, int maxSize, long borrowTimeout,
+        long leakThreshold, boolean leakTracing)
+    {
+    PoolMinSize = minSize;
+    PoolMaxSize = maxSize;
+    PoolBorrowTimeout = borrowTimeout;
+    PoolLeakThreshold = leakThreshold;
+    PoolLeakTracing = leakTracing;
     }
 
 
@@ -45,7 +79,8 @@ public class MadnessDatabase extends Object
    * database directory (for Derby), and use the specified database name.
    * The 'getConnection()' method will create the database as needed.  Iff
    * 'rebuildDatabase', then drop and recreate all the tables, with a default
-   * set of data.  This should normally be needed once only.
+   * set of data.  This should normally be needed once only.  Either way,
+   * the schema is then migrated to the latest version (see SchemaMigrator).
    *
    * @param dataDirectory a file-system directory for the database to use
    * @param databaseURL the database URL for connections
@@ -72,6 +107,8 @@ public class MadnessDatabase extends Object
       BaseDataSet baseData = new BaseDataSet();
       baseData.createBaseData();
       }
+    SchemaMigrator migrator = new SchemaMigrator();
+    migrator.migrate();
     }
 
 
@@ -91,28 +128,73 @@ public class MadnessDatabase extends Object
 
 
   /**
-   * Return a database connection, or null if none can be produced.  Report any errors
-   * to my ExceptionLogger, if I have one.
+   * Borrow a database connection from my pool.  Closing it returns it to
+   * the pool.  If every connection stays busy for the pool's borrow timeout,
+   * an SQLException is thrown.
    *
    * @return a connection to the database
    */
   public Connection getConnection() throws SQLException
     {
-    if (m_databaseURL != null)
-      {
-      String connectionString = m_databaseURL + ";create=true";
-      return DriverManager.getConnection(connectionString);
-      }
+    if (m_pool != null)
+      return m_pool.borrow();
     else
       throw new NullPointerException("This Database is not initialized.  No connection for you!");
     }
 
 
+  /**
+   * Borrow a database connection from my pool for streaming output to a
+   * client, as 'getConnection()' does, except that it won't be reported as
+   * a leak however long a slow client keeps it.
+   *
+   * @return a connection to the database
+   */
+  public Connection getStreamingConnection() throws SQLException
+    {
+    if (m_pool != null)
+      return m_pool.borrow(true);
+    else
+      throw new NullPointerException("This Database is not initialized.  No connection for you!");
+    }
+
+
+  /**
+   * Return my connection pool, mainly so its counters can be inspected.
+   *
+   * @return the connection pool
+   */
+  public ConnectionPool getConnectionPool()
+    {
+    return m_pool;
+    }
+
+
+  /**
+   * Convert an entity ID, which may arrive as an Integer or as a request
+   * parameter string, to an int for binding into a prepared statement.
+   *
+   * @param id an entity ID
+   * @return the ID as an int
+   */
+  public static int ParseID(Object id)
+    {
+    if (id instanceof Integer)
+      return ((Integer)id).intValue();
+    else if (id != null)
+      return Integer.parseInt(id.toString().trim());
+    else
+      throw new NullPointerException("A null entity ID was given.");
+    }
+
+
   /**
    * Shut down my database.
    */
   public void shutDown() throws Exception
     {
+    if (m_pool != null)
+      m_pool.close();
     if (m_databaseURL != null)
       if (m_databaseURL.indexOf("//localhost:1527/") == -1)
         DriverManager.getConnection(m_databaseURL + ";shutdown=true");
@@ -0,0 +1,349 @@
+package com.chipsandwaycool.entity;
+
+import com.chipsandwaycool.entity.mail.MailJob;
+import com.chipsandwaycool.utility.Emailer;
+import com.chipsandwaycool.utility.MailDispatcher;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a stand-alone check, not part of the normal runtime, of bulk email
+ * delivery through the MailDispatcher.  It starts an in-process stand-in for
+ * an SMTP server, which rejects one address, refuses the message for
+ * another, and drops each connection after a few messages, builds the base
+ * data set in a scratch embedded Derby database, and sends one job, with
+ * one malformed address too, through the real outbox and workers.  Then it
+ * checks that every good address got exactly one email, that the three bad
+ * ones each failed on the first attempt, the rejected address with the
+ * server's error, and that the workers reconnected after their connections
+ * were dropped.  Run it with a scratch directory for Derby's files, and
+ * optionally the number of good recipients:
+ * <pre>java com.chipsandwaycool.entity.MailCheck /tmp/mailcheck 50</pre>
+ * It prints each check, and exits with status 1 if any of them fails.
+ */
+public class MailCheck extends Object
+  {
+
+  private static final int DEFAULT_RECIPIENTS = 50;
+  private static final int DROP_AFTER = 4;
+  private static final String REJECTED = "nobody@rejected.example.com";
+  private static final String REFUSED = "spam@refused.example.com";
+  private static final String MALFORMED = "not an address";
+  private static final long TIMEOUT = 60000;
+
+  private int         m_failures = 0;
+
+
+
+  /**
+   * Run the check.
+   *
+   * @param args a scratch directory for Derby, then the number of recipients
+   */
+  public static void main(String[] args) throws Exception
+    {
+    if (args.length == 0)
+      {
+      System.out.println("Usage:  MailCheck <scratch directory> [recipients]");
+      return;
+      }
+    int recipientCount = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_RECIPIENTS;
+    FakeSMTPServer server = new FakeSMTPServer();
+    server.start();
+    Emailer.SetSMTPHost("localhost");
+    Emailer.SetSMTPPort(server.getPort());
+    Emailer.SetDefaultSender("pool@example.com");
+    MailDispatcher.Configure(MailDispatcher.DEFAULT_WORKER_COUNT, 100, 100);
+    MadnessDatabase.Initialize(args[0], "jdbc:derby:mailCheck", true);
+    MailCheck check = new MailCheck();
+    try
+      {
+      check.run(server, recipientCount);
+      }
+    finally
+      {
+      MailDispatcher.ShutDown();
+      server.close();
+      try { MadnessDatabase.GetInstance().shutDown(); }
+      catch (SQLException ignored) { }
+      }
+    System.out.println((check.m_failures == 0) ? "All checks passed." : check.m_failures + " check(s) failed.");
+    System.exit((check.m_failures == 0) ? 0 : 1);
+    }
+
+
+  /**
+   * Send one job to 'recipientCount' good addresses and the three bad ones,
+   * wait for it to finish, and check how it went.
+   *
+   * @param server the stand-in SMTP server the emails go to
+   * @param recipientCount how many good addresses to send to
+   */
+  public void run(FakeSMTPServer server, int recipientCount) throws Exception
+    {
+    List recipients = new ArrayList();
+    for (int i = 1; i <= recipientCount; i++)
+      recipients.add("player" + i + "@example.com");
+    recipients.add(recipientCount / 2, REJECTED);
+    recipients.add(recipientCount / 3, REFUSED);
+    recipients.add(recipientCount / 4, MALFORMED);
+    MailDispatcher dispatcher = MailDispatcher.GetInstance();
+    MailJob job = dispatcher.submit("Standings", "The standings have changed.", recipients);
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!job.getFinished() && (System.currentTimeMillis() < deadline))
+      {
+      Thread.sleep(100);
+      job = dispatcher.getJob(job.getID());
+      }
+    System.out.println(job);
+    check("the job finished", job.getFinished());
+    check("every good address was sent to", job.getSentCount() == recipientCount);
+    check("only the three bad addresses failed", job.getFailedCount() == 3);
+    String error = getLastError(job.getID(), REJECTED);
+    check("the rejected address failed with the server's error", (error != null) && (error.indexOf("550") != -1));
+    check("the rejected address failed on the first attempt", getAttempts(job.getID(), REJECTED) == 1);
+    check("the refused message failed on the first attempt", getAttempts(job.getID(), REFUSED) == 1);
+    check("the malformed address failed on the first attempt", getAttempts(job.getID(), MALFORMED) == 1);
+    check("the server got exactly one email per good address", server.getMessageCount() == recipientCount);
+    check("the workers reconnected after dropped connections",
+          server.getConnectionCount() > MailDispatcher.DEFAULT_WORKER_COUNT);
+    }
+
+
+  /**
+   * Print one check's outcome, and count it if it failed.
+   *
+   * @param description what was checked
+   * @param passed whether it passed
+   */
+  private void check(String description, boolean passed)
+    {
+    System.out.println((passed ? "ok      " : "FAILED  ") + description);
+    if (!passed)
+      m_failures++;
+    }
+
+
+  /**
+   * Return the last error recorded for one recipient of a job.
+   *
+   * @param jobID the job's ID
+   * @param recipient the recipient's address
+   * @return the last error, or null if none was recorded
+   */
+  private String getLastError(int jobID, String recipient) throws SQLException
+    {
+    return getColumn("lastError", jobID, recipient);
+    }
+
+
+  /**
+   * Return how many attempts were made to send to one recipient of a job.
+   *
+   * @param jobID the job's ID
+   * @param recipient the recipient's address
+   * @return the number of attempts, or -1 if there's no such recipient
+   */
+  private int getAttempts(int jobID, String recipient) throws SQLException
+    {
+    String attempts = getColumn("attempts", jobID, recipient);
+    return (attempts != null) ? Integer.parseInt(attempts) : -1;
+    }
+
+
+  /**
+   * Return one column of the outbox row for one recipient of a job.
+   *
+   * @param column the column's name
+   * @param jobID the job's ID
+   * @param recipient the recipient's address
+   * @return the column's value as a string, or null
+   */
+  private String getColumn(String column, int jobID, String recipient) throws SQLException
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      PreparedStatement statement = connection.prepareStatement(
+            "select " + column + " from OutboxMessage where jobID = ? and recipient = ?");
+      statement.setInt(1, jobID);
+      statement.setString(2, recipient);
+      ResultSet results = statement.executeQuery();
+      String value = results.next() ? results.getString(1) : null;
+      results.close();
+      statement.close();
+      return value;
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+
+  /**
+   * A bare-bones SMTP server on a local port, just enough for JavaMail.  It
+   * answers 550 for the rejected address, refuses the message for the
+   * refused address with 554, and closes each connection, as a server with
+   * a per-connection message limit might, after accepting 'DROP_AFTER'
+   * messages on it.
+   */
+  private static class FakeSMTPServer extends Thread
+    {
+
+    private ServerSocket  m_serverSocket = null;
+    private int           m_connectionCount = 0;
+    private int           m_messageCount = 0;
+
+
+    FakeSMTPServer() throws IOException
+      {
+      super("FakeSMTPServer");
+      setDaemon(true);
+      m_serverSocket = new ServerSocket(0);
+      }
+
+
+    int getPort()
+      {
+      return m_serverSocket.getLocalPort();
+      }
+
+
+    synchronized int getConnectionCount()
+      {
+      return m_connectionCount;
+      }
+
+
+    synchronized int getMessageCount()
+      {
+      return m_messageCount;
+      }
+
+
+    void close() throws IOException
+      {
+      m_serverSocket.close();
+      }
+
+
+    public void run()
+      {
+      try
+        {
+        while (true)
+          {
+          final Socket socket = m_serverSocket.accept();
+          synchronized (this)
+            {
+            m_connectionCount++;
+            }
+          Thread session = new Thread("FakeSMTPSession")
+            {
+            public void run()
+              {
+              serve(socket);
+              }
+            };
+          session.setDaemon(true);
+          session.start();
+          }
+        }
+      catch (IOException closed) { }
+      }
+
+
+    /**
+     * Hold one SMTP conversation, until the client quits or the connection
+     * is dropped.
+     */
+    private void serve(Socket socket)
+      {
+      try
+        {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        PrintWriter out = new PrintWriter(socket.getOutputStream());
+        reply(out, "220 localhost fake SMTP");
+        int accepted = 0;
+        boolean data = false;
+        boolean refused = false;
+        String line = null;
+        while ((line = in.readLine()) != null)
+          {
+          if (data)
+            {
+            if (!line.equals("."))
+              continue;
+            data = false;
+            if (refused)
+              {
+              refused = false;
+              reply(out, "554 Message refused");
+              continue;
+              }
+            synchronized (this)
+              {
+              m_messageCount++;
+              }
+            reply(out, "250 OK");
+            if (++accepted == DROP_AFTER)
+              break;
+            continue;
+            }
+          String command = line.toUpperCase();
+          if (command.startsWith("EHLO"))
+            reply(out, "250-localhost\r\n250 OK");
+          else if (command.startsWith("RCPT") && (command.indexOf(REJECTED.toUpperCase()) != -1))
+            reply(out, "550 No such user here");
+          else if (command.startsWith("RCPT") && (command.indexOf(REFUSED.toUpperCase()) != -1))
+            {
+            refused = true;
+            reply(out, "250 OK");
+            }
+          else if (command.startsWith("DATA"))
+            {
+            data = true;
+            reply(out, "354 End data with <CR><LF>.<CR><LF>");
+            }
+          else if (command.startsWith("QUIT"))
+            {
+            reply(out, "221 Bye");
+            break;
+            }
+          else
+            reply(out, "250 OK");
+          }
+        }
+      catch (IOException ignored) { }
+      finally
+        {
+        try { socket.close(); }
+        catch (IOException ignored) { }
+        }
+      }
+
+
+    private void reply(PrintWriter out, String line)
+      {
+      out.print(line + "\r\n");
+      out.flush();
+      }
+
+    }
+
+  }
@@ -0,0 +1,208 @@
+package com.chipsandwaycool.entity;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * This is a stand-alone benchmark, not part of the normal runtime, for the
+ * lookups the SchemaMigrator's indexes are meant to speed up.  For each of
+ * several table sizes it builds the Player, Pick and Game tables, as
+ * BaseDataSet does, in a scratch embedded Derby database, fills them with
+ * generated rows, and times the lookups; then it migrates the schema and
+ * times them again.  Run it with a scratch directory for Derby's files, and
+ * optionally the table sizes (numbers of players) to try:
+ * <pre>java com.chipsandwaycool.entity.SchemaBenchmark /tmp/bench 1000 10000 100000</pre>
+ */
+public class SchemaBenchmark extends Object
+  {
+
+  private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000 };
+  private static final int LOOKUPS = 500;
+  private static final int BATCH_SIZE = 1000;
+
+  private Connection  m_connection = null;
+  private Random      m_random = new Random(1);
+
+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args a scratch directory for Derby, then any table sizes
+   */
+  public static void main(String[] args) throws Exception
+    {
+    if (args.length == 0)
+      {
+      System.out.println("Usage:  SchemaBenchmark <scratch directory> [players ...]");
+      return;
+      }
+    int[] sizes = DEFAULT_SIZES;
+    if (args.length > 1)
+      {
+      sizes = new int[args.length - 1];
+      for (int i = 0; i < sizes.length; i++)
+        sizes[i] = Integer.parseInt(args[i + 1]);
+      }
+    System.setProperty("derby.system.home", args[0]);
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    SchemaBenchmark benchmark = new SchemaBenchmark(
+          DriverManager.getConnection("jdbc:derby:schemaBenchmark;create=true"));
+    System.out.println("players\tindexes\tusername (ms)\tteam picks (ms)\tgame (ms)");
+    for (int i = 0; i < sizes.length; i++)
+      benchmark.run(sizes[i]);
+    benchmark.m_connection.close();
+    }
+
+
+  /**
+   * Create a benchmark using the given connection.
+   *
+   * @param connection a connection to a scratch database
+   */
+  public SchemaBenchmark(Connection connection)
+    {
+    m_connection = connection;
+    }
+
+
+  /**
+   * Build the tables for 'playerCount' players, and print the average time
+   * of each lookup before and after migrating the schema.
+   *
+   * @param playerCount the number of players to generate
+   */
+  public void run(int playerCount) throws SQLException
+    {
+    createTables(playerCount);
+    printTimes(playerCount, "no");
+    SchemaMigrator migrator = new SchemaMigrator();
+    migrator.migrate(m_connection);
+    printTimes(playerCount, "yes");
+    }
+
+
+  /**
+   * Drop and recreate the version-zero tables, and fill them.
+   *
+   * @param playerCount the number of players to generate
+   */
+  private void createTables(int playerCount) throws SQLException
+    {
+    BaseDataSet.DropMigratedTables(m_connection);
+    BaseDataSet.DropTable(m_connection, "Player");
+    BaseDataSet.DropTable(m_connection, "Pick");
+    BaseDataSet.DropTable(m_connection, "Game");
+    m_connection.createStatement().execute(BaseDataSet.PLAYER_DDL);
+    m_connection.createStatement().execute(BaseDataSet.PICK_DDL);
+    m_connection.createStatement().execute(BaseDataSet.GAME_DDL);
+    m_connection.setAutoCommit(false);
+    PreparedStatement player = m_connection.prepareStatement(
+          "insert into Player (username, active, password, firstName, lastName, admin)"
+          + " values (?, 1, 'password', 'First', 'Last', 0)");
+    PreparedStatement pick = m_connection.prepareStatement(
+          "insert into Pick (playerID, points, teamID) values (?, ?, ?)");
+    for (int i = 1; i <= playerCount; i++)
+      {
+      player.setString(1, "player" + i);
+      player.addBatch();
+      for (int points = 1; points <= 20; points++)
+        {
+        pick.setInt(1, i);
+        pick.setInt(2, points);
+        pick.setInt(3, m_random.nextInt(64) + 1);
+        pick.addBatch();
+        }
+      if ((i % BATCH_SIZE) == 0)
+        {
+        player.executeBatch();
+        pick.executeBatch();
+        }
+      }
+    player.executeBatch();
+    pick.executeBatch();
+    PreparedStatement game = m_connection.prepareStatement(
+          "insert into Game (round, position, team1ID, team2ID, winningTeamID) values (?, ?, -1, -1, -1)");
+    for (int round = 0; round < 6; round++)
+      for (int position = 0; position < (32 >> round); position++)
+        {
+        game.setInt(1, round);
+        game.setInt(2, position);
+        game.executeUpdate();
+        }
+    m_connection.commit();
+    m_connection.setAutoCommit(true);
+    }
+
+
+  /**
+   * Time each kind of lookup and print a line of the results.
+   *
+   * @param playerCount the number of players in the tables
+   * @param indexed whether the schema has been migrated yet
+   */
+  private void printTimes(int playerCount, String indexed) throws SQLException
+    {
+    PreparedStatement username = m_connection.prepareStatement(
+          "select * from Player where username = ?");
+    PreparedStatement teamPicks = m_connection.prepareStatement(
+          "select playerID from Pick where teamID = ?");
+    PreparedStatement game = m_connection.prepareStatement(
+          "select * from Game where round = ? and position = ?");
+    long usernameTime = 0;
+    long teamPicksTime = 0;
+    long gameTime = 0;
+    for (int i = 0; i < LOOKUPS; i++)
+      {
+      username.setString(1, "player" + (m_random.nextInt(playerCount) + 1));
+      usernameTime += time(username);
+      teamPicks.setInt(1, m_random.nextInt(64) + 1);
+      teamPicksTime += time(teamPicks);
+      int round = m_random.nextInt(6);
+      game.setInt(1, round);
+      game.setInt(2, m_random.nextInt(32 >> round));
+      gameTime += time(game);
+      }
+    username.close();
+    teamPicks.close();
+    game.close();
+    System.out.println(playerCount + "\t" + indexed + "\t" + format(usernameTime)
+          + "\t" + format(teamPicksTime) + "\t" + format(gameTime));
+    }
+
+
+  /**
+   * Run a query, reading all its rows, and return how long it took.
+   *
+   * @param statement the query to run
+   * @return the time taken, in nanoseconds
+   */
+  private long time(PreparedStatement statement) throws SQLException
+    {
+    long start = System.nanoTime();
+    ResultSet results = statement.executeQuery();
+    while (results.next())
+      results.getInt(1);
+    results.close();
+    return System.nanoTime() - start;
+    }
+
+
+  /**
+   * Format a total time as the average milliseconds per lookup.
+   *
+   * @param totalTime a total time, in nanoseconds
+   * @return the average in milliseconds, to three places
+   */
+  private String format(long totalTime)
+    {
+    long micros = totalTime / LOOKUPS / 1000;
+    String fraction = "00" + (micros % 1000);
+    return (micros / 1000) + "." + fraction.substring(fraction.length() - 3);
+    }
+
+  }
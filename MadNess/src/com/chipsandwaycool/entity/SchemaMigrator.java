@@ -0,0 +1,188 @@
+package com.chipsandwaycool.entity;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This brings the database schema up to date.  The schema's version is kept
+ * in the one-row SchemaVersion table, which is created (at version zero) if
+ * it isn't there, as in a database built before versioning began.  Each
+ * entry in 'MIGRATIONS' takes the schema from one version to the next, and
+ * each is applied, with its version update, in a single transaction.
+ * <br/><br/>
+ * The tables BaseDataSet creates are version zero, so a rebuilt database is
+ * migrated like any other.  New schema changes go on the end of the list;
+ * migrations already released must never be changed.
+ */
+public class SchemaMigrator extends Object
+  {
+
+  private static final String TABLE_MISSING_STATE = "42X05";
+
+  private static final String[][] MIGRATIONS = {
+        // 1:  indexes for lookups by username, by team, and by bracket position
+        { "create unique index playerUsername on Player (username)",
+          "create index pickTeamID on Pick (teamID)",
+          "create unique index gameRoundPosition on Game (round, position)" },
+        // 2:  the email outbox
+        { "create table MailJob ("
+            + "\n  id int generated by default as identity,"
+            + "\n  jobKey varchar(40) not null,"
+            + "\n  subject varchar(200),"
+            + "\n  body clob,"
+            + "\n  created bigint,"
+            + "\n  constraint mailJobPK primary key (id))",
+          "create unique index mailJobKey on MailJob (jobKey)",
+          "create table OutboxMessage ("
+            + "\n  id int generated by default as identity,"
+            + "\n  jobID int not null,"
+            + "\n  recipient varchar(100) not null,"
+            + "\n  status smallint not null,"
+            + "\n  attempts int not null,"
+            + "\n  nextAttempt bigint not null,"
+            + "\n  lastError varchar(200),"
+            + "\n  constraint outboxMessagePK primary key (id))",
+          "create unique index outboxJobRecipient on OutboxMessage (jobID, recipient)",
+          "create index outboxStatusNextAttempt on OutboxMessage (status, nextAttempt)" },
+        // 3:  the same email may be sent again later, as a new job
+        { "drop index mailJobKey",
+          "create index mailJobKeyCreated on MailJob (jobKey, created)" } };
+
+
+
+  /**
+   * Return the schema version this code expects.
+   *
+   * @return the latest schema version
+   */
+  public static int GetLatestVersion()
+    {
+    return MIGRATIONS.length;
+    }
+
+
+  /**
+   * Migrate the MadnessDatabase to the latest schema version.
+   */
+  public void migrate() throws SQLException
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      migrate(connection);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Migrate the database on 'connection' to the latest schema version.
+   *
+   * @param connection a database connection to use
+   */
+  public void migrate(Connection connection) throws SQLException
+    {
+    int version = getVersion(connection);
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try
+      {
+      for (; version < MIGRATIONS.length; version++)
+        {
+        System.out.println("Migrating the database schema to version " + (version + 1) + ".");
+        if (version == 0)
+          checkUniqueUsernames(connection);
+        Statement statement = connection.createStatement();
+        for (int i = 0; i < MIGRATIONS[version].length; i++)
+          statement.execute(MIGRATIONS[version][i]);
+        statement.close();
+        PreparedStatement update = connection.prepareStatement("update SchemaVersion set version = ?");
+        update.setInt(1, version + 1);
+        update.executeUpdate();
+        update.close();
+        connection.commit();
+        }
+      }
+    finally
+      {
+      connection.rollback();
+      connection.setAutoCommit(autoCommit);
+      }
+    }
+
+
+  /**
+   * Return the current schema version, creating the SchemaVersion table at
+   * version zero if it doesn't exist yet.
+   *
+   * @param connection a database connection to use
+   * @return the current schema version
+   */
+  private int getVersion(Connection connection) throws SQLException
+    {
+    Statement statement = connection.createStatement();
+    try
+      {
+      ResultSet result = statement.executeQuery("select version from SchemaVersion");
+      int version = result.next() ? result.getInt(1) : 0;
+      result.close();
+      return version;
+      }
+    catch (SQLException exception)
+      {
+      if (!TABLE_MISSING_STATE.equals(exception.getSQLState()))
+        throw exception;
+      statement.execute("create table SchemaVersion (version int not null)");
+      statement.executeUpdate("insert into SchemaVersion (version) values (0)");
+      return 0;
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+
+  /**
+   * Make sure no two players share a username, since migration 1 puts a
+   * unique index on it.  Older databases never enforced this, and the
+   * index creation would otherwise fail with nothing but a constraint
+   * error; this names the usernames that have to be fixed by hand first.
+   *
+   * @param connection a database connection to use
+   */
+  private void checkUniqueUsernames(Connection connection) throws SQLException
+    {
+    Statement statement = connection.createStatement();
+    try
+      {
+      ResultSet result = statement.executeQuery(
+            "select username from Player group by username having count(*) > 1");
+      StringBuffer duplicates = new StringBuffer();
+      while (result.next())
+        {
+        if (duplicates.length() > 0)
+          duplicates.append(", ");
+        duplicates.append("'").append(result.getString(1)).append("'");
+        }
+      result.close();
+      if (duplicates.length() > 0)
+        throw new SQLException("Can't migrate the schema to version 1:  more than one player has the username "
+              + duplicates + ".  Rename or remove the extra players, then restart.");
+      }
+    finally
+      {
+      statement.close();
+      }
+    }
+
+  }
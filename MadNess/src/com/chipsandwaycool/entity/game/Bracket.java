@@ -0,0 +1,162 @@
+package com.chipsandwaycool.entity.game;
+
+/**
+ * This object is a snapshot of the whole bracket:  the teams and winner of
+ * every game, in bracket order (see 'GameManager.getGamesInBracketOutputOrder()'),
+ * along with a version number that goes up each time a new snapshot replaces
+ * the last.  It never changes once it's built, so any number of requests can
+ * read one at the same time without locking, and without going to the data
+ * store.  Unknown teams and winners are -1, as they are in a Game.
+ * <br/><br/>
+ * The games' rounds and positions aren't stored, since they follow from
+ * the bracket order:  the first thirty-two games are round zero, the next
+ * sixteen are round one, and so on.
+ */
+public class Bracket extends Object
+  {
+
+  public static final int GAME_COUNT = 63;
+
+  private long    m_version = 0;
+  private int[]   m_gameIDs = new int[GAME_COUNT];
+  private int[]   m_team1IDs = new int[GAME_COUNT];
+  private int[]   m_team2IDs = new int[GAME_COUNT];
+  private int[]   m_winningTeamIDs = new int[GAME_COUNT];
+
+
+
+  /**
+   * Create a snapshot of the given games.
+   *
+   * @param version the snapshot's version number
+   * @param gamesInBracketOrder the whole list of games, in order
+   */
+  Bracket(long version, Game[] gamesInBracketOrder)
+    {
+    m_version = version;
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      Game game = gamesInBracketOrder[i];
+      m_gameIDs[i] = game.getID();
+      m_team1IDs[i] = game.getTeam1ID();
+      m_team2IDs[i] = game.getTeam2ID();
+      m_winningTeamIDs[i] = game.getWinningTeamID();
+      }
+    }
+
+
+  /**
+   * Return the zero-based round of the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the game's round
+   */
+  public static int GetRound(int index)
+    {
+    int round = 0;
+    while (index >= 64 - (32 >> round))
+      round++;
+    return round;
+    }
+
+
+  /**
+   * Return the position within its round of the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the game's position within its round
+   */
+  public static int GetPosition(int index)
+    {
+    return index - (64 - (64 >> GetRound(index)));
+    }
+
+
+  /**
+   * Return this snapshot's version number.
+   *
+   * @return my version
+   */
+  public long getVersion()
+    {
+    return m_version;
+    }
+
+
+  /**
+   * Return the unique ID of the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the game's ID
+   */
+  public int getGameID(int index)
+    {
+    return m_gameIDs[index];
+    }
+
+
+  /**
+   * Return the ID of the first team in the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the ID of team 1 for the game, or -1
+   */
+  public int getTeam1ID(int index)
+    {
+    return m_team1IDs[index];
+    }
+
+
+  /**
+   * Return the ID of the second team in the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the ID of team 2 for the game, or -1
+   */
+  public int getTeam2ID(int index)
+    {
+    return m_team2IDs[index];
+    }
+
+
+  /**
+   * Return the ID of the team who won the game at the given index.
+   *
+   * @param index a game's index in bracket order
+   * @return the ID of the winning team, or -1
+   */
+  public int getWinningTeamID(int index)
+    {
+    return m_winningTeamIDs[index];
+    }
+
+
+  /**
+   * Return new Game objects for all the games in this snapshot, in bracket
+   * order, for a caller that's going to change them and save them.
+   *
+   * @return an array of all the games
+   */
+  public Game[] getGames()
+    {
+    Game[] games = new Game[GAME_COUNT];
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      games[i] = new Game(GetRound(i), GetPosition(i), m_team1IDs[i], m_team2IDs[i], m_winningTeamIDs[i]);
+      games[i].setID(m_gameIDs[i]);
+      }
+    return games;
+    }
+
+
+  /**
+   * Return a simple string representation of this object.
+   *
+   * @return myself as a string
+   */
+  public String toString()
+    {
+    return "bracket version " + m_version;
+    }
+
+  }
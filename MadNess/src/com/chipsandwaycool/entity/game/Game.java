@@ -13,6 +13,9 @@ package com.chipsandwaycool.entity.game;
  * in corresponding games within subsequent rounds.  So for any one game,
  * the teams playing, and the winning team of those two, may not be known,
  * in which case -1 is used as a null value.
+ * <br/><br/>
+ * A Game remembers whether its teams or winner have changed since it was
+ * loaded, so only the games that actually changed need to be saved.
  */
 public class Game extends Object
   {
@@ -23,6 +26,7 @@ public class Game extends Object
   private int       m_team1ID = -1;
   private int       m_team2ID = -1;
   private int       m_winningTeamID = -1;
+  private boolean   m_dirty = false;
 
 
   /**
@@ -125,7 +129,11 @@ public class Game extends Object
    */
   public void setTeam1ID(int team1ID)
     {
-    m_team1ID = team1ID;
+    if (m_team1ID != team1ID)
+      {
+      m_team1ID = team1ID;
+      m_dirty = true;
+      }
     }
 
 
@@ -147,7 +155,11 @@ public class Game extends Object
    */
   public void setTeam2ID(int team2ID)
     {
-    m_team2ID = team2ID;
+    if (m_team2ID != team2ID)
+      {
+      m_team2ID = team2ID;
+      m_dirty = true;
+      }
     }
 
 
@@ -169,7 +181,11 @@ public class Game extends Object
    */
   public void setWinningTeamID(int winningTeamID)
     {
-    m_winningTeamID = winningTeamID;
+    if (m_winningTeamID != winningTeamID)
+      {
+      m_winningTeamID = winningTeamID;
+      m_dirty = true;
+      }
     }
 
 
@@ -184,6 +200,27 @@ public class Game extends Object
     }
 
 
+  /**
+   * Return whether my teams or winner have been changed since I was loaded
+   * or saved.
+   *
+   * @return true if I need to be saved
+   */
+  public boolean isDirty()
+    {
+    return m_dirty;
+    }
+
+
+  /**
+   * Mark me as matching the data store.
+   */
+  void clearDirty()
+    {
+    m_dirty = false;
+    }
+
+
   /**
    * Return a simple string representation of this object.
    *
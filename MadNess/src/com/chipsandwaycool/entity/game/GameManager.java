@@ -1,20 +1,29 @@
 package com.chipsandwaycool.entity.game;
 
 import com.chipsandwaycool.entity.MadnessDatabase;
+import com.chipsandwaycool.entity.player.ScoringEngine;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This object manages CRUD operations for Game entities.
+ * <br/><br/>
+ * The whole bracket is also kept in memory as an immutable Bracket snapshot,
+ * loaded on first use and replaced whenever a reconciled set of games is
+ * saved, so pages and the ScoringEngine can read it without locking and
+ * without going to the data store.
  */
 public class GameManager extends Object
   {
 
   static GameManager Instance = null;
 
+  private AtomicReference   m_bracket = new AtomicReference();
+
 
 
   /**
@@ -68,6 +77,7 @@ public class GameManager extends Object
         try { connection.close(); }
         catch (SQLException ignored) { }
       }
+    m_bracket.set(null);
     }
 
 
@@ -83,8 +93,9 @@ public class GameManager extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Game where id = " + gameID);
+      PreparedStatement statement = connection.prepareStatement("select * from Game where id = ?");
+      statement.setInt(1, MadnessDatabase.ParseID(gameID));
+      ResultSet result = statement.executeQuery();
       if (result.next())
         return load(result);
       else
@@ -104,47 +115,89 @@ public class GameManager extends Object
 
 
   /**
-   * Load and return all Game entities, ordered to facilitate the bracket view.
+   * Return the current snapshot of the bracket, loading it from the data
+   * store if there isn't one yet.
+   *
+   * @return the current Bracket
+   */
+  public Bracket getBracket()
+    {
+    Bracket bracket = (Bracket)(m_bracket.get());
+    if (bracket != null)
+      return bracket;
+    bracket = new Bracket(0, loadGamesInBracketOutputOrder());
+    if (m_bracket.compareAndSet(null, bracket))
+      return bracket;
+    return getBracket();
+    }
+
+
+  /**
+   * Return new Game objects for all the games, ordered to facilitate the
+   * bracket view, from the current snapshot of the bracket.  Use this to
+   * change games and save them; to just read them, use 'getBracket()'.
    *
    * @return an array of all Game entities
    */
   public Game[] getGamesInBracketOutputOrder()
     {
-    Connection connection = null;
-    try
-      {
-      connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet results = statement.executeQuery("select * from Game order by round, position");
-      Game[] games = new Game[63];
-      int index = 0;
-      while (results.next())
-        games[index++] = load(results);
-      return games;
-      }
-    catch (SQLException exception)
-      {
-      throw new RuntimeException(exception);
-      }
-    finally
-      {
-      if (connection != null)
-        try { connection.close(); }
-        catch (SQLException ignored) { }
-      }
+    return getBracket().getGames();
     }
 
 
   /**
-   * Iterator through all the games in "bracket order", checking whether
-   * each one's two precedent games have been decided, and setting its
-   * state accordingly.  Then update the team IDs for all the games in the
-   * data store.
+   * Apply the games the caller changed to the current snapshot of the
+   * bracket, then work down the bracket from them, checking whether each
+   * following game's two precedent games have been decided, and setting its
+   * state accordingly.  Only games on the path from a changed game to the
+   * final are looked at, since no others can be affected.  Then update the
+   * games that actually changed in the data store, as a single batch, and let
+   * the ScoringEngine rescore whatever changed.  Once the changes are
+   * committed, the merged games, exactly as written, become the new
+   * snapshot of the bracket, so the snapshot and the Game table always agree.
+   * <br/><br/>
+   * The caller's games are usually a copy of an older snapshot, so only the
+   * ones it marked dirty are taken from it, and of those only the winner and,
+   * in the first round, the teams; everything else comes from the current
+   * snapshot.  Saves are done one at a time, so two admins saving winners
+   * from the same snapshot don't undo each other's changes, and snapshots
+   * are published in the same order as the changes they hold.
    *
-   * @param gamesInBracketOrder the whole list of games, in order
+   * @param changedGames the whole list of games, in order, with changes marked dirty
    */
-  public void reconcileAndSaveGames(Game[] gamesInBracketOrder)
+  public synchronized void reconcileAndSaveGames(Game[] changedGames)
     {
+    Bracket current = getBracket();
+    Game[] gamesInBracketOrder = current.getGames();
+    for (int i = 0; i < gamesInBracketOrder.length; i++)
+      {
+      Game changed = changedGames[i];
+      if (!changed.isDirty())
+        continue;
+      Game game = gamesInBracketOrder[i];
+      if (i < 32)
+        {
+        game.setTeam1ID(changed.getTeam1ID());
+        game.setTeam2ID(changed.getTeam2ID());
+        }
+      game.setWinningTeamID(changed.getWinningTeamID());
+      }
+    for (int i = 32; i < gamesInBracketOrder.length; i++)
+      {
+      Game game = gamesInBracketOrder[i];
+      Game game1 = gamesInBracketOrder[(i & 31) << 1];
+      Game game2 = gamesInBracketOrder[((i & 31) << 1) + 1];
+      if (!game.isDirty() && !game1.isDirty() && !game2.isDirty())
+        continue;
+      game.setTeam1ID(game1.getWinningTeamID());
+      game.setTeam2ID(game2.getWinningTeamID());
+      if ((game.getTeam1ID() == -1) || (game.getTeam2ID() == -1)
+            || ((game.getWinningTeamID() != game.getTeam1ID())
+            && (game.getWinningTeamID() != game.getTeam2ID())))
+        game.setWinningTeamID(-1);
+      }
+    int dirtyCount = 0;
+    Bracket bracket = null;
     Connection connection = null;
     try
       {
@@ -155,22 +208,25 @@ public class GameManager extends Object
       for (int i = 0; i < gamesInBracketOrder.length; i++)
         {
         Game game = gamesInBracketOrder[i];
-        if (i >= 32)
-          {
-          game.setTeam1ID(gamesInBracketOrder[(i & 31) << 1].getWinningTeamID());
-          game.setTeam2ID(gamesInBracketOrder[((i & 31) << 1) + 1].getWinningTeamID());
-          if ((game.getTeam1ID() == -1) || (game.getTeam2ID() == -1)
-                || ((game.getWinningTeamID() != game.getTeam1ID())
-                && (game.getWinningTeamID() != game.getTeam2ID())))
-            game.setWinningTeamID(-1);
-          }
+        if (!game.isDirty())
+          continue;
         update.setInt(1, game.getTeam1ID());
         update.setInt(2, game.getTeam2ID());
         update.setInt(3, game.getWinningTeamID());
         update.setInt(4, game.getID());
-        update.executeUpdate();
+        update.addBatch();
+        dirtyCount++;
+        }
+      if (dirtyCount > 0)
+        update.executeBatch();
+      connection.commit();
+      for (int i = 0; i < changedGames.length; i++)
+        changedGames[i].clearDirty();
+      if (dirtyCount > 0)
+        {
+        bracket = new Bracket(current.getVersion() + 1, gamesInBracketOrder);
+        m_bracket.set(bracket);
         }
-        connection.commit();
       }
     catch (SQLException exception)
       {
@@ -187,6 +243,41 @@ public class GameManager extends Object
           }
         catch (SQLException ignored) { }
       }
+    if (bracket != null)
+      ScoringEngine.GetInstance().gamesChanged(bracket);
+    }
+
+
+  /**
+   * Load all Game entities from the data store, ordered to facilitate the
+   * bracket view.
+   *
+   * @return an array of all Game entities
+   */
+  private Game[] loadGamesInBracketOutputOrder()
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      Statement statement = connection.createStatement();
+      ResultSet results = statement.executeQuery("select * from Game order by round, position");
+      Game[] games = new Game[Bracket.GAME_COUNT];
+      int index = 0;
+      while (results.next())
+        games[index++] = load(results);
+      return games;
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
     }
 
 
@@ -205,6 +296,7 @@ public class GameManager extends Object
     game.setTeam1ID(result.getInt("team1ID"));
     game.setTeam2ID(result.getInt("team2ID"));
     game.setWinningTeamID(result.getInt("winningTeamID"));
+    game.clearDirty();
     return game;
     }
 
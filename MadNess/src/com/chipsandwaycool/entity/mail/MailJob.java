@@ -0,0 +1,148 @@
+package com.chipsandwaycool.entity.mail;
+
+/**
+ * This object reports on one email, with one subject and body, going out to
+ * a list of recipients through the outbox:  how many of the emails have been
+ * sent, how many have failed for good, and how many are still waiting,
+ * including those waiting to be retried.  It's a snapshot, read from the
+ * data store when it's asked for, so a page can show the job's progress
+ * while the MailDispatcher is still sending.
+ */
+public class MailJob extends Object
+  {
+
+  private int       m_id = -1;
+  private String    m_subject = null;
+  private long      m_createdTime = -1;
+  private int       m_totalCount = 0;
+  private int       m_sentCount = 0;
+  private int       m_failedCount = 0;
+  private int       m_retryingCount = 0;
+
+
+
+  /**
+   * Create a report on a job.
+   *
+   * @param id the job's ID
+   * @param subject the emails' subject
+   * @param createdTime the time the job was first queued
+   * @param totalCount the number of recipients
+   * @param sentCount the number of emails sent
+   * @param failedCount the number of emails that failed for good
+   * @param retryingCount the number of emails waiting to be retried
+   */
+  MailJob(int id, String subject, long createdTime, int totalCount, int sentCount,
+        int failedCount, int retryingCount)
+    {
+    m_id = id;
+    m_subject = subject;
+    m_createdTime = createdTime;
+    m_totalCount = totalCount;
+    m_sentCount = sentCount;
+    m_failedCount = failedCount;
+    m_retryingCount = retryingCount;
+    }
+
+
+  /**
+   * Return my unique ID.
+   *
+   * @return my ID
+   */
+  public int getID()
+    {
+    return m_id;
+    }
+
+
+  /**
+   * Return the emails' subject.
+   *
+   * @return the subject
+   */
+  public String getSubject()
+    {
+    return m_subject;
+    }
+
+
+  /**
+   * Return the time the job was first queued.
+   *
+   * @return the time it was created, in milliseconds
+   */
+  public long getCreatedTime()
+    {
+    return m_createdTime;
+    }
+
+
+  /**
+   * Return how many emails there are to send.
+   *
+   * @return the number of recipients
+   */
+  public int getTotalCount()
+    {
+    return m_totalCount;
+    }
+
+
+  /**
+   * Return how many emails had been sent.
+   *
+   * @return the number sent
+   */
+  public int getSentCount()
+    {
+    return m_sentCount;
+    }
+
+
+  /**
+   * Return how many emails had failed, and won't be tried again.
+   *
+   * @return the number that failed
+   */
+  public int getFailedCount()
+    {
+    return m_failedCount;
+    }
+
+
+  /**
+   * Return how many emails had failed at least once and were waiting to be
+   * tried again.
+   *
+   * @return the number waiting to be retried
+   */
+  public int getRetryingCount()
+    {
+    return m_retryingCount;
+    }
+
+
+  /**
+   * Return whether every email had either been sent or failed for good.
+   *
+   * @return whether the job was finished
+   */
+  public boolean getFinished()
+    {
+    return (m_sentCount + m_failedCount == m_totalCount);
+    }
+
+
+  /**
+   * Return a simple string representation of this object.
+   *
+   * @return myself as a string
+   */
+  public String toString()
+    {
+    return "mail job " + m_id + ":  " + m_sentCount + " of " + m_totalCount + " sent, "
+          + m_failedCount + " failed, " + m_retryingCount + " retrying";
+    }
+
+  }
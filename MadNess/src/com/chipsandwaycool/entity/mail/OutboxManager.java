@@ -0,0 +1,391 @@
+package com.chipsandwaycool.entity.mail;
+
+import com.chipsandwaycool.entity.MadnessDatabase;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This object manages the outbox:  the MailJob table, holding each email's
+ * subject and body once, and the OutboxMessage table, holding one row per
+ * recipient with its status, the number of attempts, and when it may next
+ * be tried.  The MailDispatcher drains the outbox; since it's in the data
+ * store, emails still waiting when the application stops are sent after it
+ * starts again.
+ * <br/><br/>
+ * A job is keyed by a digest of its subject and body, so queueing the same
+ * email again within 'DUPLICATE_WINDOW' of the last time--by reloading the
+ * page that queued it, say--finds the existing job rather than making a new
+ * one, and only recipients it doesn't already have are added.  Nobody gets
+ * the same email twice from one submission, but an email queued again after
+ * that, such as unchanged scores sent a second time, is a new job.
+ */
+public class OutboxManager extends Object
+  {
+
+  private static final int STATUS_QUEUED = 0;
+  private static final int STATUS_SENT = 1;
+  private static final int STATUS_FAILED = 2;
+  private static final int MAX_ERROR_LENGTH = 200;
+  private static final long DUPLICATE_WINDOW = 600000;
+
+  static OutboxManager Instance = null;
+
+
+
+  /**
+   * Prevent client code from instantiating this singleton class directly.
+   */
+  private OutboxManager()
+    {
+    }
+
+
+  /**
+   * Return the sole OutboxManager instance, creating it on first call.
+   *
+   * @return the OutboxManager singleton
+   */
+  static public synchronized OutboxManager GetInstance()
+    {
+    if (Instance == null)
+      Instance = new OutboxManager();
+    return Instance;
+    }
+
+
+  /**
+   * Queue an email with the given subject and body to each of the
+   * recipients, unless it was already queued for them within the last
+   * 'DUPLICATE_WINDOW' milliseconds, and return its job.
+   *
+   * @param subject the emails' subject
+   * @param body the body text of the emails
+   * @param recipients the recipients' email addresses, as Strings
+   * @return the email's job
+   */
+  public synchronized MailJob enqueue(String subject, String body, List recipients)
+    {
+    String jobKey = GetJobKey(subject, body);
+    long now = System.currentTimeMillis();
+    int jobID = -1;
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      connection.setAutoCommit(false);
+      Set newRecipients = new LinkedHashSet(recipients);
+      PreparedStatement statement = connection.prepareStatement(
+            "select id from MailJob where jobKey = ? and created >= ? order by created desc");
+      statement.setString(1, jobKey);
+      statement.setLong(2, now - DUPLICATE_WINDOW);
+      ResultSet results = statement.executeQuery();
+      if (results.next())
+        {
+        jobID = results.getInt(1);
+        statement = connection.prepareStatement("select recipient from OutboxMessage where jobID = ?");
+        statement.setInt(1, jobID);
+        results = statement.executeQuery();
+        while (results.next())
+          newRecipients.remove(results.getString(1));
+        }
+      else
+        {
+        statement = connection.prepareStatement(
+              "insert into MailJob (jobKey, subject, body, created) values (?, ?, ?, ?)");
+        statement.setString(1, jobKey);
+        statement.setString(2, subject);
+        statement.setString(3, body);
+        statement.setLong(4, now);
+        statement.executeUpdate();
+        results = connection.createStatement().executeQuery("values IDENTITY_VAL_LOCAL()");
+        results.next();
+        jobID = results.getInt(1);
+        }
+      if (newRecipients.size() > 0)
+        {
+        statement = connection.prepareStatement(
+              "insert into OutboxMessage (jobID, recipient, status, attempts, nextAttempt) values (?, ?, ?, 0, 0)");
+        for (Iterator i = newRecipients.iterator(); i.hasNext(); )
+          {
+          statement.setInt(1, jobID);
+          statement.setString(2, (String)(i.next()));
+          statement.setInt(3, STATUS_QUEUED);
+          statement.addBatch();
+          }
+        statement.executeBatch();
+        }
+      connection.commit();
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try
+          {
+          connection.rollback();
+          connection.setAutoCommit(true);
+          connection.close();
+          }
+        catch (SQLException ignored) { }
+      }
+    return selectJob(jobID);
+    }
+
+
+  /**
+   * Return a report on the job with the given ID, or null if there isn't
+   * one.
+   *
+   * @param jobID a job's ID
+   * @return the job, or null
+   */
+  public MailJob selectJob(int jobID)
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      PreparedStatement statement = connection.prepareStatement(
+            "select subject, created from MailJob where id = ?");
+      statement.setInt(1, jobID);
+      ResultSet results = statement.executeQuery();
+      if (!results.next())
+        return null;
+      String subject = results.getString(1);
+      long createdTime = results.getLong(2);
+      statement = connection.prepareStatement(
+            "select status, count(*), sum(case when attempts > 0 then 1 else 0 end)"
+            + " from OutboxMessage where jobID = ? group by status");
+      statement.setInt(1, jobID);
+      results = statement.executeQuery();
+      int totalCount = 0;
+      int sentCount = 0;
+      int failedCount = 0;
+      int retryingCount = 0;
+      while (results.next())
+        {
+        int count = results.getInt(2);
+        totalCount += count;
+        if (results.getInt(1) == STATUS_SENT)
+          sentCount = count;
+        else if (results.getInt(1) == STATUS_FAILED)
+          failedCount = count;
+        else
+          retryingCount = results.getInt(3);
+        }
+      return new MailJob(jobID, subject, createdTime, totalCount, sentCount, failedCount, retryingCount);
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Return up to 'count' queued messages that are due to be tried by
+   * 'time', oldest first, leaving out those whose IDs are in 'excludedIDs'
+   * (as Integers), which are already being sent.
+   *
+   * @param time the current time, in milliseconds
+   * @param count the most messages to return
+   * @param excludedIDs the IDs of messages to leave out
+   * @return a list of OutboxMessages
+   */
+  public List selectDue(long time, int count, Set excludedIDs)
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      PreparedStatement statement = connection.prepareStatement(
+            "select id, jobID, recipient, attempts from OutboxMessage"
+            + " where status = ? and nextAttempt <= ? order by nextAttempt, id");
+      statement.setInt(1, STATUS_QUEUED);
+      statement.setLong(2, time);
+      statement.setMaxRows(count + excludedIDs.size());
+      ResultSet results = statement.executeQuery();
+      List messages = new ArrayList(count);
+      Map contents = new HashMap();
+      while (results.next() && (messages.size() < count))
+        {
+        int id = results.getInt(1);
+        if (excludedIDs.contains(new Integer(id)))
+          continue;
+        int jobID = results.getInt(2);
+        String[] content = (String[])(contents.get(new Integer(jobID)));
+        if (content == null)
+          {
+          content = selectContent(connection, jobID);
+          contents.put(new Integer(jobID), content);
+          }
+        messages.add(new OutboxMessage(id, jobID, results.getString(3), content[0], content[1],
+              results.getInt(4)));
+        }
+      return messages;
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Record that a message was sent.
+   *
+   * @param message the message
+   */
+  public void recordSent(OutboxMessage message)
+    {
+    recordAttempt(message, STATUS_SENT, 0, null);
+    }
+
+
+  /**
+   * Record that sending a message failed, and that it should be tried
+   * again at 'nextAttempt'.
+   *
+   * @param message the message
+   * @param nextAttempt the time of the next attempt, in milliseconds
+   * @param error a description of the failure
+   */
+  public void recordRetry(OutboxMessage message, long nextAttempt, String error)
+    {
+    recordAttempt(message, STATUS_QUEUED, nextAttempt, error);
+    }
+
+
+  /**
+   * Record that sending a message failed, and that it won't be tried again.
+   *
+   * @param message the message
+   * @param error a description of the failure
+   */
+  public void recordFailed(OutboxMessage message, String error)
+    {
+    recordAttempt(message, STATUS_FAILED, 0, error);
+    }
+
+
+  /**
+   * Record an attempt to send a message, and its outcome.
+   *
+   * @param message the message
+   * @param status the message's new status
+   * @param nextAttempt the time of the next attempt, if it's still queued
+   * @param error a description of the failure, or null
+   */
+  private void recordAttempt(OutboxMessage message, int status, long nextAttempt, String error)
+    {
+    if ((error != null) && (error.length() > MAX_ERROR_LENGTH))
+      error = error.substring(0, MAX_ERROR_LENGTH);
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      PreparedStatement statement = connection.prepareStatement(
+            "update OutboxMessage set status = ?, attempts = attempts + 1, nextAttempt = ?, lastError = ? where id = ?");
+      statement.setInt(1, status);
+      statement.setLong(2, nextAttempt);
+      statement.setString(3, error);
+      statement.setInt(4, message.getID());
+      statement.executeUpdate();
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Return the subject and body of the job with the given ID.
+   *
+   * @param connection a database connection to use
+   * @param jobID a job's ID
+   * @return the subject and body, in an array of two
+   */
+  private String[] selectContent(Connection connection, int jobID) throws SQLException
+    {
+    PreparedStatement statement = connection.prepareStatement(
+          "select subject, body from MailJob where id = ?");
+    statement.setInt(1, jobID);
+    ResultSet results = statement.executeQuery();
+    if (!results.next())
+      throw new SQLException("No MailJob record was found for ID " + jobID + ".");
+    String[] content = { results.getString(1), results.getString(2) };
+    results.close();
+    statement.close();
+    return content;
+    }
+
+
+  /**
+   * Return the key identifying an email with the given subject and body:
+   * a hex digest of them both.
+   *
+   * @param subject the email's subject
+   * @param body the body text of the email
+   * @return the job key
+   */
+  private static String GetJobKey(String subject, String body)
+    {
+    try
+      {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(subject.getBytes("UTF-8"));
+      digest.update((byte)0);
+      byte[] hash = digest.digest(body.getBytes("UTF-8"));
+      StringBuffer key = new StringBuffer(hash.length * 2);
+      for (int i = 0; i < hash.length; i++)
+        {
+        key.append(Character.forDigit((hash[i] >> 4) & 15, 16));
+        key.append(Character.forDigit(hash[i] & 15, 16));
+        }
+      return key.toString();
+      }
+    catch (NoSuchAlgorithmException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    catch (UnsupportedEncodingException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    }
+
+  }
@@ -0,0 +1,118 @@
+package com.chipsandwaycool.entity.mail;
+
+/**
+ * This object is one email waiting in the outbox:  one recipient of a
+ * MailJob, along with the job's subject and body, and the number of times
+ * sending it has already been tried.
+ */
+public class OutboxMessage extends Object
+  {
+
+  private int       m_id = -1;
+  private int       m_jobID = -1;
+  private String    m_recipient = null;
+  private String    m_subject = null;
+  private String    m_body = null;
+  private int       m_attempts = 0;
+
+
+
+  /**
+   * Create a message with the given attributes.
+   *
+   * @param id the message's ID
+   * @param jobID the ID of its job
+   * @param recipient the recipient's email address
+   * @param subject the email's subject
+   * @param body the body text of the email
+   * @param attempts the number of times sending it has been tried
+   */
+  OutboxMessage(int id, int jobID, String recipient, String subject, String body,
+        int attempts)
+    {
+    m_id = id;
+    m_jobID = jobID;
+    m_recipient = recipient;
+    m_subject = subject;
+    m_body = body;
+    m_attempts = attempts;
+    }
+
+
+  /**
+   * Return my unique ID.
+   *
+   * @return my ID
+   */
+  public int getID()
+    {
+    return m_id;
+    }
+
+
+  /**
+   * Return the ID of the job I belong to.
+   *
+   * @return my job's ID
+   */
+  public int getJobID()
+    {
+    return m_jobID;
+    }
+
+
+  /**
+   * Return the recipient's email address.
+   *
+   * @return the recipient
+   */
+  public String getRecipient()
+    {
+    return m_recipient;
+    }
+
+
+  /**
+   * Return the email's subject.
+   *
+   * @return the subject
+   */
+  public String getSubject()
+    {
+    return m_subject;
+    }
+
+
+  /**
+   * Return the body text of the email.
+   *
+   * @return the body text
+   */
+  public String getBody()
+    {
+    return m_body;
+    }
+
+
+  /**
+   * Return the number of times sending me has already been tried.
+   *
+   * @return the number of attempts so far
+   */
+  public int getAttempts()
+    {
+    return m_attempts;
+    }
+
+
+  /**
+   * Return a simple string representation of this object.
+   *
+   * @return myself as a string
+   */
+  public String toString()
+    {
+    return "message " + m_id + " of job " + m_jobID + " to " + m_recipient;
+    }
+
+  }
@@ -19,6 +19,7 @@ public class Player extends Object
   private String    m_email = null;
   private boolean   m_admin = false;
   private int[]     m_picks = null;
+  private byte[]    m_pointsByTeam = null;
 
 
 
@@ -303,6 +304,38 @@ public class Player extends Object
   public void setPicks(int[] picks)
     {
     m_picks = picks;
+    m_pointsByTeam = null;
+    }
+
+
+  /**
+   * Return my array of team picks, in order of points.  This is the array
+   * itself, so callers must not modify it.
+   *
+   * @return this player's team picks
+   */
+  int[] getPicks()
+    {
+    return m_picks;
+    }
+
+
+  /**
+   * Set every attribute of mine, except the picks, to match 'other'.
+   *
+   * @param other a player whose attributes are to be copied
+   */
+  void copyAttributes(Player other)
+    {
+    m_id = other.m_id;
+    m_active = other.m_active;
+    m_username = other.m_username;
+    m_password = other.m_password;
+    m_firstName = other.m_firstName;
+    m_lastName = other.m_lastName;
+    m_nickname = other.m_nickname;
+    m_email = other.m_email;
+    m_admin = other.m_admin;
     }
 
 
@@ -329,10 +362,34 @@ public class Player extends Object
    */
   public int getPointsForTeam(int teamID)
     {
-    for (int i = 0; i < m_picks.length; i++)
-      if (m_picks[i] == teamID)
-        return i + 1;
-    return 0;
+    byte[] pointsByTeam = m_pointsByTeam;
+    if (pointsByTeam == null)
+      m_pointsByTeam = pointsByTeam = buildPointsByTeam(m_picks);
+    return ((teamID >= 0) && (teamID < pointsByTeam.length)) ? pointsByTeam[teamID] : 0;
+    }
+
+
+  /**
+   * Build a table of points indexed by team ID from an array of picks, so
+   * that 'getPointsForTeam()' is a single array read.  Team IDs are small
+   * identity values (one per team in the tournament), so the table is just
+   * big enough for the highest ID picked.  If a team was somehow picked
+   * twice, the lower points value wins, as it always has.
+   *
+   * @param picks a player's team picks, in order of points
+   * @return the points for each team ID
+   */
+  private static byte[] buildPointsByTeam(int[] picks)
+    {
+    int maxTeamID = -1;
+    for (int i = 0; i < picks.length; i++)
+      if (picks[i] > maxTeamID)
+        maxTeamID = picks[i];
+    byte[] pointsByTeam = new byte[maxTeamID + 1];
+    for (int i = picks.length - 1; i >= 0; i--)
+      if (picks[i] >= 0)
+        pointsByTeam[picks[i]] = (byte)(i + 1);
+    return pointsByTeam;
     }
 
 
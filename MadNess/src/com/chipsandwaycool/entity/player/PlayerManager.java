@@ -1,17 +1,16 @@
 package com.chipsandwaycool.entity.player;
 
 import com.chipsandwaycool.entity.MadnessDatabase;
-import com.chipsandwaycool.entity.game.GameManager;
-import com.chipsandwaycool.entity.game.Game;
 import java.sql.ResultSet;
-import java.sql.Statement;
 import java.sql.SQLException;
 import java.sql.PreparedStatement;
 import java.sql.Connection;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
-import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
 
 /**
  * This object manages CRUD operations for Player entities.
@@ -19,8 +18,13 @@ import java.util.Collections;
 public class PlayerManager extends Object
   {
 
+  private static final int VISIT_FETCH_SIZE = 500;
+
   static PlayerManager Instance = null;
 
+  private Map     m_versions = new HashMap();
+  private long    m_lastVersion = 0;
+
 
 
   /**
@@ -77,6 +81,7 @@ public class PlayerManager extends Object
         try { connection.close(); }
         catch (SQLException ignored) { }
       }
+    ScoringEngine.GetInstance().invalidate();
     }
 
 
@@ -114,6 +119,63 @@ public class PlayerManager extends Object
         try { connection.close(); }
         catch (SQLException ignored) { }
       }
+    incrementVersion(player.getID());
+    ScoringEngine.GetInstance().playerChanged(player);
+    }
+
+
+  /**
+   * Return a Principal for the player with the given ID, for keeping in
+   * the user's session.  The version is read before the player, so if the
+   * player is updated in between, the principal is already out of date.
+   *
+   * @param playerID the player's ID
+   * @return a principal for the player
+   */
+  public Principal getPrincipal(Object playerID)
+    {
+    int id = MadnessDatabase.ParseID(playerID);
+    long version = getVersion(id);
+    return new Principal(select(new Integer(id), false), version);
+    }
+
+
+  /**
+   * Return whether 'principal' is still current, or whether its player has
+   * been updated since it was made.  This needs no query.
+   *
+   * @param principal a principal, from 'getPrincipal()'
+   * @return whether the principal is up to date
+   */
+  public boolean getPrincipalIsCurrent(Principal principal)
+    {
+    return principal.getVersion() == getVersion(principal.getID());
+    }
+
+
+  /**
+   * Return the version of the player with the given ID.  Versions are kept
+   * in memory only, and a player who hasn't been updated since startup is
+   * at version zero.
+   *
+   * @param playerID the player's ID
+   * @return the player's version
+   */
+  private synchronized long getVersion(int playerID)
+    {
+    Long version = (Long)(m_versions.get(new Integer(playerID)));
+    return (version != null) ? version.longValue() : 0;
+    }
+
+
+  /**
+   * Give the player with the given ID a new version.
+   *
+   * @param playerID the player's ID
+   */
+  private synchronized void incrementVersion(int playerID)
+    {
+    m_versions.put(new Integer(playerID), new Long(++m_lastVersion));
     }
 
 
@@ -131,8 +193,9 @@ public class PlayerManager extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Player where id = " + playerID);
+      PreparedStatement statement = connection.prepareStatement("select * from Player where id = ?");
+      statement.setInt(1, MadnessDatabase.ParseID(playerID));
+      ResultSet result = statement.executeQuery();
       if (result.next())
         {
         Player player = load(result, null);
@@ -168,8 +231,9 @@ public class PlayerManager extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Player where username = '" + username + "'");
+      PreparedStatement statement = connection.prepareStatement("select * from Player where username = ?");
+      statement.setString(1, (username != null) ? username.toString() : null);
+      ResultSet result = statement.executeQuery();
       if (result.next())
         return load(result, null);
       else
@@ -213,17 +277,72 @@ public class PlayerManager extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Player");
-      List players = new ArrayList(30);
-      while (result.next())
+      return loadPlayers(connection, addPicks);
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Pass each player, with picks, to 'visitor', in order of ID, reading
+   * them with a single forward-only join of players and picks.  Only one
+   * player is held at a time, and the same Player object is reused for each
+   * one, so this takes the same memory however big the pool is.
+   * <br/><br/>
+   * The visitor may be writing each player straight out to a client, as the
+   * picks CSV download does, so the connection is held until the client has
+   * read everything.  It is borrowed as a streaming connection, which the
+   * pool's leak check leaves alone, but it is still one of the pool's
+   * connections for as long as the download lasts.
+   *
+   * @param activeOnly whether to skip inactive players
+   * @param visitor the object handling each player
+   */
+  public void visitPlayersWithPicks(boolean activeOnly, PlayerVisitor visitor) throws IOException
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getStreamingConnection();
+      PreparedStatement statement = connection.prepareStatement(
+            "select p.*, k.points, k.teamID from Player p"
+            + " left outer join Pick k on k.playerID = p.id"
+            + (activeOnly ? " where p.active <> 0" : "") + " order by p.id",
+            ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(VISIT_FETCH_SIZE);
+      ResultSet results = statement.executeQuery();
+      Player player = new Player();
+      int[] picks = new int[20];
+      int currentID = -1;
+      while (results.next())
         {
-        Player player = load(result, null);
-        if (addPicks)
-          player.setPicks(getPlayerPicks(connection, new Integer(player.getID())));
-        players.add(player);
+        int playerID = results.getInt("id");
+        if (playerID != currentID)
+          {
+          if (currentID != -1)
+            visitor.visit(player);
+          load(results, player);
+          Arrays.fill(picks, 0);
+          currentID = playerID;
+          }
+        int points = results.getInt("points");
+        if (!results.wasNull() && (points >= 1) && (points <= picks.length))
+          picks[points - 1] = results.getInt("teamID");
+        player.setPicks(picks);
         }
-      return players;
+      if (currentID != -1)
+        visitor.visit(player);
+      results.close();
+      statement.close();
       }
     catch (SQLException exception)
       {
@@ -243,31 +362,81 @@ public class PlayerManager extends Object
    * array of twenty integers representing team IDs, the first one worth
    * twenty points, the second worth nineteen, etcetera.  The value -1 is
    * allowed, where the player hasn't chosen a team for any given position.
+   * <br/><br/>
+   * The stored picks are read first, and only the points values whose team
+   * has changed are written, in batches of inserts, updates and deletes.
+   * The player's own row is locked before the stored picks are read, so
+   * two submissions for the same player take turns instead of both
+   * inserting the same points value.
    *
    * @param playerID the player's own ID
    * @param picks an array of the player's chosen team IDs
+   * @return the number of Pick rows written
    */
-  public void setPlayerPicks(Object playerID, int[] picks)
+  public int setPlayerPicks(Object playerID, int[] picks)
     {
     if (playerID == null)
       throw new NullPointerException("Method 'setPlayerPicks()' was invoked with a null player ID.");
+    int id = MadnessDatabase.ParseID(playerID);
+    int[] picksByPoints = new int[picks.length];
+    for (int i = 0; i < picks.length; i++)
+      picksByPoints[picks.length - 1 - i] = Math.max(picks[i], 0);
+    int rowsWritten = 0;
     Connection connection = null;
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
       connection.setAutoCommit(false);
-      Statement statement = connection.createStatement();
-      statement.executeUpdate("delete from Pick where playerID = " + playerID);
+      PreparedStatement lock = connection.prepareStatement(
+            "update Player set active = active where id = ?");
+      lock.setInt(1, id);
+      lock.executeUpdate();
+      lock.close();
+      int[] storedPicks = getPlayerPicks(connection, playerID);
       PreparedStatement insert = connection.prepareStatement(
             "insert into Pick (playerID, points, teamID) values (?, ?, ?)");
-      insert.setInt(1, ((Integer)playerID).intValue());
-      for (int i = 0; i < picks.length; i++)
-        if (picks[i] >= 0)
+      PreparedStatement update = connection.prepareStatement(
+            "update Pick set teamID = ? where playerID = ? and points = ?");
+      PreparedStatement delete = connection.prepareStatement(
+            "delete from Pick where playerID = ? and points = ?");
+      int inserts = 0;
+      int updates = 0;
+      int deletes = 0;
+      for (int i = 0; i < storedPicks.length; i++)
+        {
+        int teamID = (i < picksByPoints.length) ? picksByPoints[i] : 0;
+        if (teamID == storedPicks[i])
+          continue;
+        if (storedPicks[i] == 0)
           {
-          insert.setInt(2, 20 - i);
-          insert.setInt(3, picks[i]);
-          insert.executeUpdate();
+          insert.setInt(1, id);
+          insert.setInt(2, i + 1);
+          insert.setInt(3, teamID);
+          insert.addBatch();
+          inserts++;
           }
+        else if (teamID == 0)
+          {
+          delete.setInt(1, id);
+          delete.setInt(2, i + 1);
+          delete.addBatch();
+          deletes++;
+          }
+        else
+          {
+          update.setInt(1, teamID);
+          update.setInt(2, id);
+          update.setInt(3, i + 1);
+          update.addBatch();
+          updates++;
+          }
+        }
+      if (deletes > 0)
+        rowsWritten += CountRows(delete.executeBatch());
+      if (updates > 0)
+        rowsWritten += CountRows(update.executeBatch());
+      if (inserts > 0)
+        rowsWritten += CountRows(insert.executeBatch());
       connection.commit();
       }
     catch (SQLException exception)
@@ -285,34 +454,126 @@ public class PlayerManager extends Object
           }
         catch (SQLException ignored) { }
       }
+    if (rowsWritten > 0)
+      ScoringEngine.GetInstance().picksChanged(id);
+    return rowsWritten;
     }
 
 
   /**
-   * Return a list of PlayerWithScores, calculating the scores for each
-   * player according to the current state of the tournament.
+   * Add up the row counts returned by 'executeBatch()'.  A driver may
+   * report a statement's count as unknown, in which case one row is
+   * assumed, since each of these statements writes a single row.
+   *
+   * @param counts the update counts of a batch
+   * @return the number of rows written
+   */
+  private static int CountRows(int[] counts)
+    {
+    int rows = 0;
+    for (int i = 0; i < counts.length; i++)
+      rows += (counts[i] >= 0) ? counts[i] : 1;
+    return rows;
+    }
+
+
+  /**
+   * Return a list of PlayerWithScores, with each player's scores according
+   * to the current state of the tournament, sorted by score.  The scores
+   * and the ranking are kept up to date by the ScoringEngine, so this
+   * doesn't recalculate anything.
    *
    * @return a list of players and their current scores
    */
   public List getPlayersWithScores()
+    {
+    return ScoringEngine.GetInstance().getPlayersWithScores();
+    }
+
+
+  /**
+   * Return the version of the scoreboard standings.  It goes up whenever
+   * games are saved, or picks or players change, so anything rendered from
+   * the standings can be cached until the version moves on.
+   *
+   * @return the standings version
+   */
+  public long getStandingsVersion()
+    {
+    return ScoringEngine.GetInstance().getVersion();
+    }
+
+
+  /**
+   * Return the time the scoreboard standings last changed.
+   *
+   * @return the time of the last change, in milliseconds
+   */
+  public long getStandingsModifiedTime()
+    {
+    return ScoringEngine.GetInstance().getModifiedTime();
+    }
+
+
+  /**
+   * Return a list of PlayerWithScores for just the leading 'count' players,
+   * sorted by score.  This is cheaper than 'getPlayersWithScores()' when
+   * only the top of a big pool is wanted.
+   *
+   * @param count the most players to return
+   * @param includeInactive whether to include inactive players
+   * @return a list of the leading players and their current scores
+   */
+  public List getTopPlayersWithScores(int count, boolean includeInactive)
+    {
+    return ScoringEngine.GetInstance().getTopPlayersWithScores(count, includeInactive);
+    }
+
+
+  /**
+   * Return a page of the scoreboard:  'count' players, sorted by score,
+   * starting after the first 'offset', along with the rank and scores of
+   * the player with ID 'playerID'.
+   *
+   * @param offset how many ranked players to skip
+   * @param count the most players to return
+   * @param playerID the ID of the player viewing the scoreboard
+   * @param includeInactive whether to include inactive players
+   * @return the page of the scoreboard
+   */
+  public ScoreboardPage getScoreboardPage(int offset, int count, Object playerID,
+        boolean includeInactive)
+    {
+    return ScoringEngine.GetInstance().getPage(offset, count,
+          MadnessDatabase.ParseID(playerID), includeInactive);
+    }
+
+
+  /**
+   * Return how many players are listed on the Scoreboard.
+   *
+   * @param includeInactive whether inactive players are counted
+   * @return the number of players listed
+   */
+  public int getScoreboardSize(boolean includeInactive)
+    {
+    return ScoringEngine.GetInstance().getVisibleCount(includeInactive);
+    }
+
+
+  /**
+   * Return a list of all players with their picks, for the ScoringEngine
+   * to load.
+   *
+   * @return a list of players, ordered by ID
+   */
+  List selectAllForScoring()
     {
     Connection connection = null;
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Player");
-      List players = new ArrayList();
-      PlayerWithScores player = null;
-      while (result.next())
-        {
-        player = new PlayerWithScores();
-        players.add(load(result, player));
-        player.setPicks(getPlayerPicks(connection, new Integer(player.getID())));
-        }
-      calculateScores(players);
-      Collections.sort(players);
-      return players;
+      return loadPlayers(connection, true);
       }
     catch (SQLException exception)
       {
@@ -327,6 +588,85 @@ public class PlayerManager extends Object
     }
 
 
+  /**
+   * Return one player's picks as they are now in the data store, for the
+   * ScoringEngine to rescore the player with.
+   *
+   * @param playerID the player's ID
+   * @return the player's picks, the one worth 'i + 1' points at index 'i'
+   */
+  int[] selectPicksForScoring(int playerID)
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      return getPlayerPicks(connection, new Integer(playerID));
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Load every Player, in order of ID, attaching their picks if 'addPicks'.
+   * The picks for all players are read with one more query, ordered by
+   * player ID, and merged into the player list as the rows stream in, so
+   * the number of queries doesn't grow with the number of players.
+   *
+   * @param connection a Connection object to use
+   * @param addPicks whether to add the players' team picks
+   * @return a list of players, ordered by ID
+   */
+  private List loadPlayers(Connection connection, boolean addPicks) throws SQLException
+    {
+    PreparedStatement statement = connection.prepareStatement("select * from Player order by id");
+    ResultSet results = statement.executeQuery();
+    List players = new ArrayList(30);
+    List pickArrays = new ArrayList(30);
+    while (results.next())
+      {
+      Player player = load(results, null);
+      if (addPicks)
+        {
+        int[] picks = new int[20];
+        player.setPicks(picks);
+        pickArrays.add(picks);
+        }
+      players.add(player);
+      }
+    results.close();
+    statement.close();
+    if (addPicks && (players.size() > 0))
+      {
+      statement = connection.prepareStatement(
+            "select playerID, points, teamID from Pick order by playerID");
+      results = statement.executeQuery();
+      int index = 0;
+      int currentID = ((Player)(players.get(0))).getID();
+      while (results.next())
+        {
+        int playerID = results.getInt(1);
+        while ((currentID < playerID) && (index < players.size() - 1))
+          currentID = ((Player)(players.get(++index))).getID();
+        if (currentID == playerID)
+          ((int[])(pickArrays.get(index)))[results.getInt(2) - 1] = results.getInt(3);
+        }
+      results.close();
+      statement.close();
+      }
+    return players;
+    }
+
+
   /**
    * Return the indicated player's team picks, in the form of an array of
    * twenty integers representing team IDs, the first one worth
@@ -339,9 +679,10 @@ public class PlayerManager extends Object
    */
   private int[] getPlayerPicks(Connection connection, Object playerID) throws SQLException
     {
-    Statement statement = connection.createStatement();
-    ResultSet results = statement.executeQuery(
-          "select * from Pick where playerID = " + playerID);
+    PreparedStatement statement = connection.prepareStatement(
+          "select * from Pick where playerID = ?");
+    statement.setInt(1, MadnessDatabase.ParseID(playerID));
+    ResultSet results = statement.executeQuery();
     int[] picks = new int[20];
     while (results.next())
       picks[results.getInt("points") - 1] = results.getInt("teamID");
@@ -351,46 +692,6 @@ public class PlayerManager extends Object
     }
 
 
-  /**
-   * Populate the given list of PlayerWithScores objects by caculating
-   * each one's scores for each round, the total and potential scores,
-   * based on the current state of the tournament.
-   *
-   * @param playersWithScores the list of PlayerWithScores objects
-   */
-  private void calculateScores(List playersWithScores)
-    {
-    GameManager gameMan = GameManager.GetInstance();
-    Game[] games = gameMan.getGamesInBracketOutputOrder();
-    for (Iterator players = playersWithScores.iterator(); players.hasNext(); )
-      {
-      PlayerWithScores player = (PlayerWithScores)(players.next());
-      int[] potentials = new int[games.length];
-      for (int i = 0; i < games.length; i++)
-        {
-        if (games[i].getWinningTeamID() >= 0)
-          {
-          potentials[i] = player.getPointsForTeam(games[i].getWinningTeamID());
-          player.addWin(i, potentials[i]);
-          player.addPotential(potentials[i]);
-          }
-        else
-          {
-          if (games[i].getTeam1ID() >= 0)
-            potentials[i] = player.getPointsForTeam(games[i].getTeam1ID());
-          else if (i > 31)
-            potentials[i] = potentials[(i & 31) << 1];
-          if (games[i].getTeam2ID() >= 0)
-            potentials[i] = Math.max(player.getPointsForTeam(games[i].getTeam2ID()), potentials[i]);
-          else if (i > 31)
-            potentials[i] = Math.max(potentials[((i & 31) << 1) + 1], potentials[i]);
-          player.addPotential(potentials[i]);
-          }
-        }
-      }
-    }
-
-
   /**
    * Load a Player object based on the current record in the given result set.
    *
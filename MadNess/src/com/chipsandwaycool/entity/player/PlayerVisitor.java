@@ -0,0 +1,21 @@
+package com.chipsandwaycool.entity.player;
+
+import java.io.IOException;
+
+/**
+ * This is implemented by objects which handle players one at a time as
+ * they are read from the data store, such as an export streaming them out,
+ * so that a whole pool of players never needs to be held in memory.
+ */
+public interface PlayerVisitor
+  {
+
+  /**
+   * Handle one player.  The Player object may be reused for the next one,
+   * so it shouldn't be kept.
+   *
+   * @param player the player, with picks
+   */
+  public void visit(Player player) throws IOException;
+
+  }
@@ -38,6 +38,21 @@ public class PlayerWithScores extends Player implements Comparable
     }
 
 
+  /**
+   * Set all my scores at once, taking the six round scores from
+   * 'roundScores' starting at 'offset'.
+   *
+   * @param roundScores an array containing my round scores
+   * @param offset the index of my first round's score
+   * @param potentialScore my potential score
+   */
+  void setScores(int[] roundScores, int offset, int potentialScore)
+    {
+    System.arraycopy(roundScores, offset, m_roundScores, 0, m_roundScores.length);
+    m_potentialScore = potentialScore;
+    }
+
+
   /**
    * Return my score, thus far, for the specified round.
    *
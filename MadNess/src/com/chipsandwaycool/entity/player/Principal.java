@@ -0,0 +1,114 @@
+package com.chipsandwaycool.entity.player;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * This is a lightweight stand-in for a logged-in player, kept in the user's
+ * session so that each request needn't read the player from the data store
+ * just to learn who they are and whether they're an administrator.  It
+ * records the player's version when it was made, and it is replaced if
+ * PlayerManager reports a newer version (see 'getPrincipalIsCurrent()').
+ * <br/><br/>
+ * It is serializable, so containers can save or replicate sessions.  Player
+ * versions are kept in memory only, though, so a principal restored from a
+ * saved session is marked out of date, and replaced on its first request.
+ */
+public class Principal extends Object implements Serializable
+  {
+
+  private static final long serialVersionUID = 1L;
+
+  private int       m_id = -1;
+  private boolean   m_admin = false;
+  private boolean   m_active = false;
+  private String    m_displayName = null;
+  private long      m_version = 0;
+
+
+
+  /**
+   * Create a principal for the given player, as of the given version.
+   *
+   * @param player the player
+   * @param version the player's version, read before the player was
+   */
+  Principal(Player player, long version)
+    {
+    m_id = player.getID();
+    m_admin = player.getAdmin();
+    m_active = player.getActive();
+    m_displayName = player.getNicknameOrFirstName();
+    m_version = version;
+    }
+
+
+  /**
+   * Return the player's ID.
+   *
+   * @return the player's ID
+   */
+  public int getID()
+    {
+    return m_id;
+    }
+
+
+  /**
+   * Return whether the player is an administrator.
+   *
+   * @return whether the player is an administrator
+   */
+  public boolean getAdmin()
+    {
+    return m_admin;
+    }
+
+
+  /**
+   * Return whether the player's account is active.
+   *
+   * @return whether the player is active
+   */
+  public boolean getActive()
+    {
+    return m_active;
+    }
+
+
+  /**
+   * Return the name to greet the player by.
+   *
+   * @return the player's nickname, or first name
+   */
+  public String getDisplayName()
+    {
+    return m_displayName;
+    }
+
+
+  /**
+   * Return the version of the player this principal was made from.
+   *
+   * @return the player's version
+   */
+  public long getVersion()
+    {
+    return m_version;
+    }
+
+
+  /**
+   * Restore a principal from a saved session, with a version no player
+   * ever has, since the versions it was compared against are gone.
+   *
+   * @param input the stream the principal is read from
+   */
+  private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException
+    {
+    input.defaultReadObject();
+    m_version = -1;
+    }
+
+  }
@@ -0,0 +1,98 @@
+package com.chipsandwaycool.entity.player;
+
+import java.util.List;
+
+/**
+ * This object holds one page of the Scoreboard:  a run of PlayerWithScores
+ * in ranked order, where that run starts, how many players there are in
+ * all, and the rank and scores of the player viewing the page, so their
+ * row can be shown even when it falls on another page.
+ */
+public class ScoreboardPage extends Object
+  {
+
+  private List              m_players = null;
+  private int               m_offset = 0;
+  private int               m_totalCount = 0;
+  private int               m_viewerRank = 0;
+  private PlayerWithScores  m_viewer = null;
+
+
+
+  /**
+   * Create a page of the Scoreboard.
+   *
+   * @param players the players on the page, best first
+   * @param offset how many ranked players precede the page
+   * @param totalCount how many players there are on all pages
+   * @param viewerRank the viewing player's rank, starting at 1, or 0 if they aren't listed
+   * @param viewer the viewing player's scores, or null if they aren't listed
+   */
+  ScoreboardPage(List players, int offset, int totalCount, int viewerRank,
+        PlayerWithScores viewer)
+    {
+    m_players = players;
+    m_offset = offset;
+    m_totalCount = totalCount;
+    m_viewerRank = viewerRank;
+    m_viewer = viewer;
+    }
+
+
+  /**
+   * Return the players on this page, best first.
+   *
+   * @return a list of PlayerWithScores
+   */
+  public List getPlayers()
+    {
+    return m_players;
+    }
+
+
+  /**
+   * Return how many ranked players precede this page.
+   *
+   * @return the offset of this page
+   */
+  public int getOffset()
+    {
+    return m_offset;
+    }
+
+
+  /**
+   * Return how many players there are on all the pages.
+   *
+   * @return the total number of players
+   */
+  public int getTotalCount()
+    {
+    return m_totalCount;
+    }
+
+
+  /**
+   * Return the viewing player's rank, starting at 1, or 0 if they aren't
+   * listed on the Scoreboard.
+   *
+   * @return the viewer's rank
+   */
+  public int getViewerRank()
+    {
+    return m_viewerRank;
+    }
+
+
+  /**
+   * Return the viewing player's scores, or null if they aren't listed on
+   * the Scoreboard.
+   *
+   * @return the viewer's scores
+   */
+  public PlayerWithScores getViewer()
+    {
+    return m_viewer;
+    }
+
+  }
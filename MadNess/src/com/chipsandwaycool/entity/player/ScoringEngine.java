@@ -0,0 +1,720 @@
+package com.chipsandwaycool.entity.player;
+
+import com.chipsandwaycool.entity.DataVersion;
+import com.chipsandwaycool.entity.game.Bracket;
+import com.chipsandwaycool.entity.game.GameManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This object keeps every player's round scores and potential score in
+ * memory, so the Scoreboard doesn't have to recalculate them from all the
+ * games and picks on every view.  The standings are loaded and scored in
+ * full the first time they're needed, and after that they are updated
+ * incrementally:  when games change, only those games and the games
+ * downstream of them in the bracket are rescored, and when a player's picks
+ * change, only that player is rescored.
+ * <br/><br/>
+ * The standings are stored by column rather than as one object per player,
+ * so that pools of hundreds of thousands of players stay compact and are
+ * scored in tight loops over contiguous arrays.  Each player is a "row":
+ * the player IDs are kept in ascending order, each row has a slice of the
+ * points matrix (the points the player gets for each team ID), a slice of
+ * the per-game potentials, and a slice of the round scores.  Scoring a game
+ * just applies the difference between its new and old potential to the
+ * totals.  A game's potential depends on the potentials of its two
+ * precedent games, which is why a change has to be carried forward to the
+ * final.  PlayerWithScores objects are only made for rows being returned.
+ * <br/><br/>
+ * Rows are independent of one another, so above a configurable number of
+ * players the scoring is split into fork/join tasks, all reading the same
+ * game arrays.  The ranking (by total score, then potential score, then ID)
+ * is likewise built by sorting runs of rows in parallel and merging them.
+ * The ranking is kept until the next change to the standings.
+ * <br/><br/>
+ * Every change to the games, picks or players bumps a version number, so
+ * anything rendered from the standings can be cached against it.
+ */
+public class ScoringEngine extends Object
+  {
+
+  private static final int GAME_COUNT = 63;
+  private static final int ROUND_COUNT = 6;
+  private static final int MIN_TEAM_SLOTS = 65;
+  private static final int[] ROUND_OF_GAME = new int[GAME_COUNT];
+  private static final int[] NO_WINNERS = new int[GAME_COUNT];
+  private static final int MAX_SCORE = 0xffff;
+  private static final int LEAF_ROWS = 4096;
+
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+
+  static
+    {
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      ROUND_OF_GAME[i] = (i < 32) ? 0 : (i < 48) ? 1 : (i < 56) ? 2 : (i < 60) ? 3 : (i < 62) ? 4 : 5;
+      NO_WINNERS[i] = -1;
+      }
+    }
+
+  static ScoringEngine Instance = null;
+  private static int ParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  private static ForkJoinPool Pool = null;
+
+  private DataVersion m_version = new DataVersion();
+  private boolean   m_loaded = false;
+  private int[]     m_team1IDs = new int[GAME_COUNT];
+  private int[]     m_team2IDs = new int[GAME_COUNT];
+  private int[]     m_winningTeamIDs = new int[GAME_COUNT];
+  private int       m_rowCount = 0;
+  private int       m_teamSlots = MIN_TEAM_SLOTS;
+  private int[]     m_playerIDs = null;
+  private Player[]  m_players = null;
+  private byte[]    m_points = null;
+  private byte[]    m_gamePotentials = null;
+  private int[]     m_roundScores = null;
+  private int[]     m_potentialScores = null;
+  private int[]     m_ranking = null;
+
+
+
+  /**
+   * Prevent client code from instantiating this singleton class directly.
+   */
+  private ScoringEngine()
+    {
+    }
+
+
+  /**
+   * Return the sole ScoringEngine instance, creating it on first call.
+   *
+   * @return the ScoringEngine singleton
+   */
+  static public synchronized ScoringEngine GetInstance()
+    {
+    if (Instance == null)
+      Instance = new ScoringEngine();
+    return Instance;
+    }
+
+
+  /**
+   * Set the number of players above which scoring and ranking are done
+   * in parallel.
+   *
+   * @param parallelThreshold the smallest pool to be scored in parallel
+   */
+  public static void SetParallelThreshold(int parallelThreshold)
+    {
+    ParallelThreshold = parallelThreshold;
+    }
+
+
+  /**
+   * Return the fork/join pool for parallel scoring, creating it on first
+   * call.  It has one worker per processor.
+   *
+   * @return the fork/join pool
+   */
+  private static synchronized ForkJoinPool GetPool()
+    {
+    if (Pool == null)
+      Pool = new ForkJoinPool();
+    return Pool;
+    }
+
+
+  /**
+   * Return the version of the standings, which goes up with every change
+   * to the games, picks or players.  Something read from the standings
+   * after this is called is at least as new as the version returned.
+   *
+   * @return the version of the standings
+   */
+  public long getVersion()
+    {
+    return m_version.getVersion();
+    }
+
+
+  /**
+   * Return the time of the last change to the standings.
+   *
+   * @return the time of the last change, in milliseconds
+   */
+  public long getModifiedTime()
+    {
+    return m_version.getModifiedTime();
+    }
+
+
+  /**
+   * Return a list of PlayerWithScores made from the current standings,
+   * ranked by total score, then by potential score, and then by ID.  The
+   * objects belong to the caller.
+   *
+   * @return a list of players and their current scores, best first
+   */
+  public synchronized List getPlayersWithScores()
+    {
+    ensureLoaded();
+    int[] ranking = getRanking();
+    List players = new ArrayList(m_rowCount);
+    for (int i = 0; i < ranking.length; i++)
+      players.add(materialize(ranking[i]));
+    return players;
+    }
+
+
+  /**
+   * Return a list of PlayerWithScores for the best 'count' players, ranked
+   * as by 'getPlayersWithScores()'.  Only those players are made into
+   * objects.
+   *
+   * @param count the most players wanted
+   * @param includeInactive whether inactive players are included
+   * @return a list of the leading players and their scores, best first
+   */
+  public synchronized List getTopPlayersWithScores(int count, boolean includeInactive)
+    {
+    ensureLoaded();
+    int[] rows = selectRanked(count, includeInactive);
+    List players = new ArrayList(rows.length);
+    for (int i = 0; i < rows.length; i++)
+      players.add(materialize(rows[i]));
+    return players;
+    }
+
+
+  /**
+   * Return one page of the ranked standings, along with the given player's
+   * rank and scores, wherever they fall.  With a 'count' of zero, only the
+   * counts and the player's rank are worked out, which needs no sorting.
+   *
+   * @param offset how many ranked players precede the page
+   * @param count the most players on the page
+   * @param playerID the ID of the player viewing the page
+   * @param includeInactive whether inactive players are included
+   * @return the page of standings
+   */
+  public synchronized ScoreboardPage getPage(int offset, int count, int playerID,
+        boolean includeInactive)
+    {
+    ensureLoaded();
+    offset = Math.max(0, offset);
+    int[] rows = (count > 0) ? selectRanked(offset + count, includeInactive) : new int[0];
+    List players = new ArrayList(Math.max(0, rows.length - offset));
+    for (int i = offset; i < rows.length; i++)
+      players.add(materialize(rows[i]));
+    int playerRow = Arrays.binarySearch(m_playerIDs, 0, m_rowCount, playerID);
+    if ((playerRow >= 0) && !isVisible(playerRow, includeInactive))
+      playerRow = -1;
+    long playerKey = (playerRow >= 0) ? getRankingKey(playerRow) : 0;
+    int visibleCount = 0;
+    int playerRank = 0;
+    for (int row = 0; row < m_rowCount; row++)
+      if (isVisible(row, includeInactive))
+        {
+        visibleCount++;
+        if ((playerRow >= 0) && (getRankingKey(row) <= playerKey))
+          playerRank++;
+        }
+    return new ScoreboardPage(players, offset, visibleCount, playerRank,
+          (playerRow >= 0) ? materialize(playerRow) : null);
+    }
+
+
+  /**
+   * Return how many players are listed in the standings.
+   *
+   * @param includeInactive whether inactive players are included
+   * @return the number of players listed
+   */
+  public synchronized int getVisibleCount(boolean includeInactive)
+    {
+    ensureLoaded();
+    int visibleCount = 0;
+    for (int row = 0; row < m_rowCount; row++)
+      if (isVisible(row, includeInactive))
+        visibleCount++;
+    return visibleCount;
+    }
+
+
+  /**
+   * Bring the standings up to date with the given snapshot of the bracket,
+   * as just saved.  Only games whose teams or winner differ from what I last
+   * saw, and the games after them in the bracket, are rescored.
+   *
+   * @param bracket the new snapshot of the bracket
+   */
+  public synchronized void gamesChanged(Bracket bracket)
+    {
+    m_version.increment();
+    if (!m_loaded)
+      return;
+    int[] oldWinningTeamIDs = m_winningTeamIDs.clone();
+    boolean[] affected = new boolean[GAME_COUNT];
+    boolean anyAffected = false;
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      if ((bracket.getTeam1ID(i) != m_team1IDs[i]) || (bracket.getTeam2ID(i) != m_team2IDs[i])
+            || (bracket.getWinningTeamID(i) != m_winningTeamIDs[i]))
+        {
+        m_team1IDs[i] = bracket.getTeam1ID(i);
+        m_team2IDs[i] = bracket.getTeam2ID(i);
+        m_winningTeamIDs[i] = bracket.getWinningTeamID(i);
+        affected[i] = true;
+        anyAffected = true;
+        }
+      }
+    if (!anyAffected)
+      return;
+    for (int i = 0; i < GAME_COUNT - 1; i++)
+      if (affected[i])
+        affected[(i >> 1) | 32] = true;
+    scoreRows(affected, oldWinningTeamIDs);
+    }
+
+
+  /**
+   * Rescore one player whose picks have just been saved.  The picks are
+   * read back from the data store here, rather than taken from the saver,
+   * since two saves for the same player can commit in one order and get
+   * here in the other; whichever gets here last reads the picks committed
+   * last.
+   *
+   * @param playerID the player's ID
+   */
+  public synchronized void picksChanged(int playerID)
+    {
+    m_version.increment();
+    if (!m_loaded)
+      return;
+    int row = Arrays.binarySearch(m_playerIDs, 0, m_rowCount, playerID);
+    if (row < 0)
+      {
+      invalidate();
+      return;
+      }
+    int[] picks = PlayerManager.GetInstance().selectPicksForScoring(playerID);
+    for (int i = 0; i < picks.length; i++)
+      if (picks[i] >= m_teamSlots)
+        {
+        invalidate();
+        return;
+        }
+    setPoints(row, picks);
+    scoreGames(row, null, m_winningTeamIDs);
+    m_ranking = null;
+    }
+
+
+  /**
+   * Copy the attributes of a player who has just been updated into the
+   * standings.
+   *
+   * @param player the updated player
+   */
+  public synchronized void playerChanged(Player player)
+    {
+    m_version.increment();
+    if (!m_loaded)
+      return;
+    int row = Arrays.binarySearch(m_playerIDs, 0, m_rowCount, player.getID());
+    if (row >= 0)
+      m_players[row].copyAttributes(player);
+    else
+      invalidate();
+    }
+
+
+  /**
+   * Forget all the standings, so they are reloaded from the data store the
+   * next time they're needed.
+   */
+  public synchronized void invalidate()
+    {
+    m_version.increment();
+    m_loaded = false;
+    m_rowCount = 0;
+    m_playerIDs = null;
+    m_players = null;
+    m_points = null;
+    m_gamePotentials = null;
+    m_roundScores = null;
+    m_potentialScores = null;
+    m_ranking = null;
+    }
+
+
+  /**
+   * Load and score all the players, if I haven't already.
+   */
+  private void ensureLoaded()
+    {
+    if (m_loaded)
+      return;
+    Bracket bracket = GameManager.GetInstance().getBracket();
+    List players = PlayerManager.GetInstance().selectAllForScoring();
+    int teamSlots = MIN_TEAM_SLOTS;
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      m_team1IDs[i] = bracket.getTeam1ID(i);
+      m_team2IDs[i] = bracket.getTeam2ID(i);
+      m_winningTeamIDs[i] = bracket.getWinningTeamID(i);
+      teamSlots = Math.max(teamSlots, Math.max(m_team1IDs[i], m_team2IDs[i]) + 1);
+      }
+    for (int i = 0; i < players.size(); i++)
+      {
+      int[] picks = ((Player)(players.get(i))).getPicks();
+      for (int j = 0; j < picks.length; j++)
+        teamSlots = Math.max(teamSlots, picks[j] + 1);
+      }
+    m_rowCount = players.size();
+    m_teamSlots = teamSlots;
+    m_playerIDs = new int[m_rowCount];
+    m_players = new Player[m_rowCount];
+    m_points = new byte[m_rowCount * m_teamSlots];
+    m_gamePotentials = new byte[m_rowCount * GAME_COUNT];
+    m_roundScores = new int[m_rowCount * ROUND_COUNT];
+    m_potentialScores = new int[m_rowCount];
+    for (int row = 0; row < m_rowCount; row++)
+      {
+      Player player = (Player)(players.get(row));
+      m_playerIDs[row] = player.getID();
+      setPoints(row, player.getPicks());
+      player.setPicks(null);
+      m_players[row] = player;
+      }
+    scoreRows(null, NO_WINNERS);
+    m_loaded = true;
+    }
+
+
+  /**
+   * Rescore the given games for every row, in parallel if there are enough
+   * rows to make it worthwhile.
+   *
+   * @param affected which games to rescore, or null for all of them
+   * @param oldWinningTeamIDs the winners the stored potentials were calculated with
+   */
+  private void scoreRows(boolean[] affected, int[] oldWinningTeamIDs)
+    {
+    if (m_rowCount < ParallelThreshold)
+      for (int row = 0; row < m_rowCount; row++)
+        scoreGames(row, affected, oldWinningTeamIDs);
+    else
+      GetPool().invoke(new ScoreTask(0, m_rowCount, affected, oldWinningTeamIDs));
+    m_ranking = null;
+    }
+
+
+  /**
+   * Return the rows in ranked order, building the ranking if the standings
+   * have changed since it was last built.  Each row is packed into a long
+   * key whose natural order is the ranking, and the keys are sorted, in
+   * parallel runs for a large pool.  Rows are in ID order, so ties on both
+   * scores fall back to ID order, just as a stable sort would leave them.
+   *
+   * @return the rows, best first
+   */
+  private int[] getRanking()
+    {
+    if (m_ranking != null)
+      return m_ranking;
+    long[] keys = new long[m_rowCount];
+    for (int row = 0; row < m_rowCount; row++)
+      keys[row] = getRankingKey(row);
+    if (m_rowCount < ParallelThreshold)
+      Arrays.sort(keys);
+    else
+      GetPool().invoke(new RankTask(keys, new long[keys.length], 0, keys.length));
+    int[] ranking = new int[m_rowCount];
+    for (int i = 0; i < ranking.length; i++)
+      ranking[i] = (int)(keys[i] & 0x7fffffffL);
+    m_ranking = ranking;
+    return ranking;
+    }
+
+
+  /**
+   * Return the ranking key for a row:  its total score, its potential score
+   * and the row itself, packed so that a lower key ranks higher.
+   *
+   * @param row the row
+   * @return the row's ranking key
+   */
+  private long getRankingKey(int row)
+    {
+    int roundBase = row * ROUND_COUNT;
+    int total = 0;
+    for (int i = 0; i < ROUND_COUNT; i++)
+      total += m_roundScores[roundBase + i];
+    return ((long)(MAX_SCORE - total) << 47)
+          | ((long)(MAX_SCORE - m_potentialScores[row]) << 31) | row;
+    }
+
+
+  /**
+   * Return whether a row is shown on the scoreboard.
+   *
+   * @param row the row
+   * @param includeInactive whether inactive players are shown
+   * @return whether the row is shown
+   */
+  private boolean isVisible(int row, boolean includeInactive)
+    {
+    return includeInactive || m_players[row].getActive();
+    }
+
+
+  /**
+   * Return the first 'limit' visible rows in ranked order.  If the full
+   * ranking is already built, or most of it is wanted anyway, it is used;
+   * otherwise the rows are picked out with a bounded heap holding the best
+   * 'limit' keys seen so far, so only those few are ever sorted.
+   *
+   * @param limit the most rows wanted
+   * @param includeInactive whether inactive players are counted
+   * @return up to 'limit' rows, best first
+   */
+  private int[] selectRanked(int limit, boolean includeInactive)
+    {
+    limit = Math.max(0, Math.min(limit, m_rowCount));
+    if ((m_ranking != null) || (limit > (m_rowCount >> 2)))
+      {
+      int[] ranking = getRanking();
+      int[] rows = new int[limit];
+      int count = 0;
+      for (int i = 0; (i < ranking.length) && (count < limit); i++)
+        if (isVisible(ranking[i], includeInactive))
+          rows[count++] = ranking[i];
+      return (count == limit) ? rows : Arrays.copyOf(rows, count);
+      }
+    long[] heap = new long[limit];
+    int size = 0;
+    for (int row = 0; (row < m_rowCount) && (limit > 0); row++)
+      {
+      if (!isVisible(row, includeInactive))
+        continue;
+      long key = getRankingKey(row);
+      if (size < limit)
+        {
+        int i = size++;
+        while ((i > 0) && (heap[(i - 1) >> 1] < key))
+          {
+          heap[i] = heap[(i - 1) >> 1];
+          i = (i - 1) >> 1;
+          }
+        heap[i] = key;
+        }
+      else if (key < heap[0])
+        {
+        int i = 0;
+        while (true)
+          {
+          int child = (i << 1) + 1;
+          if (child >= size)
+            break;
+          if ((child + 1 < size) && (heap[child + 1] > heap[child]))
+            child++;
+          if (heap[child] <= key)
+            break;
+          heap[i] = heap[child];
+          i = child;
+          }
+        heap[i] = key;
+        }
+      }
+    Arrays.sort(heap, 0, size);
+    int[] rows = new int[size];
+    for (int i = 0; i < size; i++)
+      rows[i] = (int)(heap[i] & 0x7fffffffL);
+    return rows;
+    }
+
+
+  /**
+   * Fill one row of the points matrix from a player's picks.  If a team was
+   * somehow picked twice, the lower points value wins, as it always has.
+   *
+   * @param row the player's row
+   * @param picks the player's picks, in order of points
+   */
+  private void setPoints(int row, int[] picks)
+    {
+    int base = row * m_teamSlots;
+    Arrays.fill(m_points, base, base + m_teamSlots, (byte)0);
+    for (int i = picks.length - 1; i >= 0; i--)
+      if (picks[i] >= 0)
+        m_points[base + picks[i]] = (byte)(i + 1);
+    }
+
+
+  /**
+   * Recalculate the potential of each affected game for one player, in
+   * bracket order, and apply the differences to the player's round scores
+   * and potential score.  A game's points are its potential once it has a
+   * winner, and zero before, so the old points follow from the old winners.
+   *
+   * @param row the player's row
+   * @param affected which games to rescore, or null for all of them
+   * @param oldWinningTeamIDs the winners the stored potentials were calculated with
+   */
+  private void scoreGames(int row, boolean[] affected, int[] oldWinningTeamIDs)
+    {
+    int pointsBase = row * m_teamSlots;
+    int gameBase = row * GAME_COUNT;
+    int roundBase = row * ROUND_COUNT;
+    int potentialDelta = 0;
+    for (int i = 0; i < GAME_COUNT; i++)
+      {
+      if ((affected != null) && !affected[i])
+        continue;
+      int potential = 0;
+      int points = 0;
+      int teamID = m_winningTeamIDs[i];
+      if (teamID >= 0)
+        {
+        potential = (teamID < m_teamSlots) ? m_points[pointsBase + teamID] : 0;
+        points = potential;
+        }
+      else
+        {
+        teamID = m_team1IDs[i];
+        if (teamID >= 0)
+          potential = (teamID < m_teamSlots) ? m_points[pointsBase + teamID] : 0;
+        else if (i > 31)
+          potential = m_gamePotentials[gameBase + ((i & 31) << 1)];
+        teamID = m_team2IDs[i];
+        if (teamID >= 0)
+          potential = Math.max((teamID < m_teamSlots) ? m_points[pointsBase + teamID] : 0, potential);
+        else if (i > 31)
+          potential = Math.max(m_gamePotentials[gameBase + ((i & 31) << 1) + 1], potential);
+        }
+      int oldPotential = m_gamePotentials[gameBase + i];
+      int oldPoints = (oldWinningTeamIDs[i] >= 0) ? oldPotential : 0;
+      m_roundScores[roundBase + ROUND_OF_GAME[i]] += points - oldPoints;
+      potentialDelta += potential - oldPotential;
+      m_gamePotentials[gameBase + i] = (byte)potential;
+      }
+    m_potentialScores[row] += potentialDelta;
+    }
+
+
+  /**
+   * Make a PlayerWithScores for one row, with the player's attributes,
+   * picks (rebuilt from the points matrix) and scores.
+   *
+   * @param row the player's row
+   * @return a new PlayerWithScores for that player
+   */
+  private PlayerWithScores materialize(int row)
+    {
+    PlayerWithScores player = new PlayerWithScores();
+    player.copyAttributes(m_players[row]);
+    int[] picks = new int[20];
+    int base = row * m_teamSlots;
+    for (int teamID = 0; teamID < m_teamSlots; teamID++)
+      if (m_points[base + teamID] > 0)
+        picks[m_points[base + teamID] - 1] = teamID;
+    player.setPicks(picks);
+    player.setScores(m_roundScores, row * ROUND_COUNT, m_potentialScores[row]);
+    return player;
+    }
+
+
+
+  /**
+   * A fork/join task for rescoring a range of rows.  Every task reads the
+   * same game arrays, which don't change while the engine's lock is held,
+   * and writes only to its own rows.
+   */
+  private class ScoreTask extends RecursiveAction
+    {
+
+    private int         m_from = 0;
+    private int         m_to = 0;
+    private boolean[]   m_affected = null;
+    private int[]       m_oldWinningTeamIDs = null;
+
+
+    ScoreTask(int from, int to, boolean[] affected, int[] oldWinningTeamIDs)
+      {
+      m_from = from;
+      m_to = to;
+      m_affected = affected;
+      m_oldWinningTeamIDs = oldWinningTeamIDs;
+      }
+
+
+    protected void compute()
+      {
+      if (m_to - m_from <= LEAF_ROWS)
+        for (int row = m_from; row < m_to; row++)
+          scoreGames(row, m_affected, m_oldWinningTeamIDs);
+      else
+        {
+        int middle = (m_from + m_to) >>> 1;
+        invokeAll(new ScoreTask(m_from, middle, m_affected, m_oldWinningTeamIDs),
+              new ScoreTask(middle, m_to, m_affected, m_oldWinningTeamIDs));
+        }
+      }
+
+    }
+
+
+
+  /**
+   * A fork/join task for sorting a range of ranking keys:  small runs are
+   * sorted directly, and larger ones are split, sorted in parallel, and the
+   * two sorted halves merged.
+   */
+  private static class RankTask extends RecursiveAction
+    {
+
+    private long[]    m_keys = null;
+    private long[]    m_buffer = null;
+    private int       m_from = 0;
+    private int       m_to = 0;
+
+
+    RankTask(long[] keys, long[] buffer, int from, int to)
+      {
+      m_keys = keys;
+      m_buffer = buffer;
+      m_from = from;
+      m_to = to;
+      }
+
+
+    protected void compute()
+      {
+      if (m_to - m_from <= LEAF_ROWS)
+        {
+        Arrays.sort(m_keys, m_from, m_to);
+        return;
+        }
+      int middle = (m_from + m_to) >>> 1;
+      invokeAll(new RankTask(m_keys, m_buffer, m_from, middle),
+            new RankTask(m_keys, m_buffer, middle, m_to));
+      int left = m_from;
+      int right = middle;
+      int out = m_from;
+      while ((left < middle) && (right < m_to))
+        m_buffer[out++] = (m_keys[left] <= m_keys[right]) ? m_keys[left++] : m_keys[right++];
+      while (left < middle)
+        m_buffer[out++] = m_keys[left++];
+      while (right < m_to)
+        m_buffer[out++] = m_keys[right++];
+      System.arraycopy(m_buffer, m_from, m_keys, m_from, m_to - m_from);
+      }
+
+    }
+
+  }
@@ -1,22 +1,30 @@
 package com.chipsandwaycool.entity.team;
 
 import com.chipsandwaycool.entity.MadnessDatabase;
+import com.chipsandwaycool.entity.DataVersion;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.Connection;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This object manages CRUD operations for Team entities.
+ * <br/><br/>
+ * Teams only change when an admin edits them, but they're read for every
+ * bracket, picks page, CSV export and email, so they're kept in memory as a
+ * TeamTable, reloaded from the data store only when the teams' version has
+ * gone up since it was loaded.
  */
 public class TeamManager extends Object
   {
 
   static TeamManager Instance = null;
 
+  private DataVersion       m_version = new DataVersion();
+  private AtomicReference   m_table = new AtomicReference();
+
 
 
   /**
@@ -40,6 +48,29 @@ public class TeamManager extends Object
     }
 
 
+  /**
+   * Return the version of the teams, which goes up with every insert or
+   * update.
+   *
+   * @return the teams' version
+   */
+  public long getVersion()
+    {
+    return m_version.getVersion();
+    }
+
+
+  /**
+   * Return the time the teams last changed.
+   *
+   * @return the time of the last change, in milliseconds
+   */
+  public long getModifiedTime()
+    {
+    return m_version.getModifiedTime();
+    }
+
+
   /**
    * Create a new Team entity in the data store.
    *
@@ -57,6 +88,7 @@ public class TeamManager extends Object
       statement.setString(2, team.getHome());
       statement.setString(3, team.getName());
       statement.executeUpdate();
+      m_version.increment();
       }
     catch (SQLException exception)
       {
@@ -83,8 +115,9 @@ public class TeamManager extends Object
     try
       {
       connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet result = statement.executeQuery("select * from Team where id = " + teamID);
+      PreparedStatement statement = connection.prepareStatement("select * from Team where id = ?");
+      statement.setInt(1, MadnessDatabase.ParseID(teamID));
+      ResultSet result = statement.executeQuery();
       if (result.next())
         return load(result);
       else
@@ -104,53 +137,39 @@ public class TeamManager extends Object
 
 
   /**
-   * Return the list of all Team entities, in order of "rank" if
-   * 'sortByRankNotName', or by University name if not.
+   * Return the table of all the teams, for reading only, loading it from
+   * the data store if the teams have changed since it was last loaded.
    *
-   * @return all the 64 teams
+   * @return the current TeamTable
    */
-  public Team[] selectAll()
+  public TeamTable getTeamTable()
     {
-    Connection connection = null;
-    try
-      {
-      connection = MadnessDatabase.GetInstance().getConnection();
-      Statement statement = connection.createStatement();
-      ResultSet results = statement.executeQuery("select * from Team order by rank");
-      Team[] teams = new Team[64];
-      for (int i = 0; i < teams.length; i++)
-        {
-        results.next();
-        teams[i] = load(results);
-        }
-      return teams;
-      }
-    catch (SQLException exception)
-      {
-      throw new RuntimeException(exception);
-      }
-    finally
-      {
-      if (connection != null)
-        try { connection.close(); }
-        catch (SQLException ignored) { }
-      }
+    TeamTable table = (TeamTable)(m_table.get());
+    long version = m_version.getVersion();
+    if ((table != null) && (table.getVersion() == version))
+      return table;
+    table = new TeamTable(version, loadAll());
+    m_table.set(table);
+    return table;
     }
 
 
   /**
-   * Return all 64 teams as a map, whose keys are Integers representing
-   * the IDs, and whose values are the Team objects.
+   * Return the list of all Team entities, in order of "rank".  These are
+   * the caller's own copies, which it may change and then update.
    *
-   * @return all the teams, mapped to their IDs
+   * @return all the 64 teams
    */
-  public Map selectAllAsMap()
+  public Team[] selectAll()
     {
-    Team[] teams = selectAll();
-    Map teamMap = new HashMap(teams.length);
+    Team[] teams = getTeamTable().getTeamsByRank();
     for (int i = 0; i < teams.length; i++)
-      teamMap.put(new Integer(teams[i].getID()), teams[i]);
-    return teamMap;
+      {
+      Team team = new Team(teams[i].getRank(), teams[i].getHome(), teams[i].getName());
+      team.setID(teams[i].getID());
+      teams[i] = team;
+      }
+    return teams;
     }
 
 
@@ -172,6 +191,41 @@ public class TeamManager extends Object
       statement.setString(3, team.getName());
       statement.setInt(4, team.getID());
       statement.executeUpdate();
+      m_version.increment();
+      }
+    catch (SQLException exception)
+      {
+      throw new RuntimeException(exception);
+      }
+    finally
+      {
+      if (connection != null)
+        try { connection.close(); }
+        catch (SQLException ignored) { }
+      }
+    }
+
+
+  /**
+   * Load all the Team entities from the data store, in order of "rank".
+   *
+   * @return all the 64 teams
+   */
+  private Team[] loadAll()
+    {
+    Connection connection = null;
+    try
+      {
+      connection = MadnessDatabase.GetInstance().getConnection();
+      Statement statement = connection.createStatement();
+      ResultSet results = statement.executeQuery("select * from Team order by rank");
+      Team[] teams = new Team[64];
+      for (int i = 0; i < teams.length; i++)
+        {
+        results.next();
+        teams[i] = load(results);
+        }
+      return teams;
       }
     catch (SQLException exception)
       {
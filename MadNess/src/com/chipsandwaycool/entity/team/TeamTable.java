@@ -0,0 +1,95 @@
+package com.chipsandwaycool.entity.team;
+
+import java.util.Arrays;
+
+/**
+ * This object holds all the teams as they were when it was loaded, for the
+ * pages and emails that only read them.  It's indexed by team ID in a plain
+ * array, so looking a team up is an array read rather than a map lookup on
+ * a new Integer, and its teams in "rank" order and in order of University
+ * name are worked out once, when it's built.
+ * <br/><br/>
+ * It never changes once it's built, and it's shared by every request, so
+ * neither should the Team objects it holds:  a caller that wants to change
+ * teams should get its own with 'TeamManager.selectAll()'.
+ */
+public class TeamTable extends Object
+  {
+
+  private long      m_version = 0;
+  private Team[]    m_teamsByID = null;
+  private Team[]    m_teamsByRank = null;
+  private Team[]    m_teamsByHome = null;
+
+
+
+  /**
+   * Create a table of the given teams.
+   *
+   * @param version the version of the teams
+   * @param teamsByRank all the teams, in order of "rank"
+   */
+  TeamTable(long version, Team[] teamsByRank)
+    {
+    m_version = version;
+    m_teamsByRank = teamsByRank;
+    m_teamsByHome = teamsByRank.clone();
+    Arrays.sort(m_teamsByHome);
+    int maxID = -1;
+    for (int i = 0; i < teamsByRank.length; i++)
+      maxID = Math.max(maxID, teamsByRank[i].getID());
+    m_teamsByID = new Team[maxID + 1];
+    for (int i = 0; i < teamsByRank.length; i++)
+      m_teamsByID[teamsByRank[i].getID()] = teamsByRank[i];
+    }
+
+
+  /**
+   * Return the version of the teams in this table (see
+   * 'TeamManager.getVersion()').
+   *
+   * @return the teams' version
+   */
+  public long getVersion()
+    {
+    return m_version;
+    }
+
+
+  /**
+   * Return the team with the given ID, or null if there isn't one, which
+   * includes the -1 used for an unknown team or a missing pick.
+   *
+   * @param teamID a team's ID
+   * @return the team, or null
+   */
+  public Team getTeam(int teamID)
+    {
+    if ((teamID < 0) || (teamID >= m_teamsByID.length))
+      return null;
+    return m_teamsByID[teamID];
+    }
+
+
+  /**
+   * Return all the teams, in order of "rank".
+   *
+   * @return all the teams
+   */
+  public Team[] getTeamsByRank()
+    {
+    return m_teamsByRank.clone();
+    }
+
+
+  /**
+   * Return all the teams, in order of University name.
+   *
+   * @return all the teams
+   */
+  public Team[] getTeamsByHome()
+    {
+    return m_teamsByHome.clone();
+    }
+
+  }
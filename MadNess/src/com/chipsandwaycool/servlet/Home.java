@@ -3,8 +3,9 @@ package com.chipsandwaycool.servlet;
 import com.chipsandwaycool.entity.player.PlayerManager;
 import com.chipsandwaycool.entity.player.Player;
 import com.chipsandwaycool.entity.game.GameManager;
-import com.chipsandwaycool.entity.game.Game;
+import com.chipsandwaycool.entity.game.Bracket;
 import com.chipsandwaycool.entity.team.TeamManager;
+import com.chipsandwaycool.entity.team.TeamTable;
 import com.chipsandwaycool.entity.team.Team;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import javax.servlet.ServletException;
@@ -13,7 +14,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.Map;
 
 /**
  * This is the home page for the March Madness Web site.  It outputs the
@@ -40,6 +40,38 @@ public class Home extends MadnessServlet
     }
 
 
+  /**
+   * Return the version of the bracket and the player's picks, which are
+   * what this page shows, so a browser refreshing it is told when nothing
+   * has changed.  Toggling the skin is never answered that way.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the data version of the page, or null
+   */
+  protected String getDataVersion(HttpServletRequest request, HttpSession session)
+    {
+    if (request.getParameter(P_TOGGLE_SKIN) != null)
+      return null;
+    return TeamManager.GetInstance().getVersion() + "."
+          + PlayerManager.GetInstance().getStandingsVersion();
+    }
+
+
+  /**
+   * Return the time the teams, games or picks last changed.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the time of the last change, in milliseconds
+   */
+  protected long getDataModifiedTime(HttpServletRequest request, HttpSession session)
+    {
+    return Math.max(TeamManager.GetInstance().getModifiedTime(),
+          PlayerManager.GetInstance().getStandingsModifiedTime());
+    }
+
+
   /**
    * Service a request to this servlet using a MadnessWriter for output.
    * If a certain argument is passed, this toggles a "skin" value in the
@@ -114,9 +146,9 @@ public class Home extends MadnessServlet
   private void doBracket(MadnessWriter out, Player player) throws IOException
     {
     GameManager gameMan = GameManager.GetInstance();
-    Game[] games = gameMan.getGamesInBracketOutputOrder();
+    Bracket bracket = gameMan.getBracket();
     TeamManager teamMan = TeamManager.GetInstance();
-    Map teams = teamMan.selectAllAsMap();
+    TeamTable teams = teamMan.getTeamTable();
     out.printBeginBox();
     out.print(TABLE);
     int gameIndex = 0;
@@ -130,15 +162,15 @@ public class Home extends MadnessServlet
       out.print(END_TD);
       for (int j = 0; j < 6; j++)
         {
-        Game game = games[(i >> (j + 2)) + gameIndex];
+        int game = (i >> (j + 2)) + gameIndex;
         if ((i % (4 << j)) == 0)
           {
           out.printBeginTD(1, (1 << j) + 1, "class=\"bracketTop\"");
           if ((j == 0) && ((i % 32) == 0))
             out.printDIV("regionHeading", REGION_NAMES[i >> 5] + ":");
-          if (game.getTeam1ID() >= 0)
+          if (bracket.getTeam1ID(game) >= 0)
             {
-            Team team = (Team)(teams.get(new Integer(game.getTeam1ID())));
+            Team team = teams.getTeam(bracket.getTeam1ID(game));
             out.printTeamForBracket(team, player);
             }
           else
@@ -148,9 +180,9 @@ public class Home extends MadnessServlet
         else if ((i % (4 << j)) == ((1 << j) + 1))
           {
           out.printBeginTD(1, 2 << j, "class=\"bracketBottom\"");
-          if (game.getTeam2ID() >= 0)
+          if (bracket.getTeam2ID(game) >= 0)
             {
-            Team team = (Team)(teams.get(new Integer(game.getTeam2ID())));
+            Team team = teams.getTeam(bracket.getTeam2ID(game));
             out.printTeamForBracket(team, player);
             }
           else
@@ -167,10 +199,10 @@ public class Home extends MadnessServlet
       if (i == 0)
         {
         out.printBeginTD(1, 64, "class=\"bracketTop\"");
-        Game game = games[62];
-        if (game.getWinningTeamID() >= 0)
+        int game = 62;
+        if (bracket.getWinningTeamID(game) >= 0)
           {
-          Team team = (Team)(teams.get(new Integer(game.getWinningTeamID())));
+          Team team = teams.getTeam(bracket.getWinningTeamID(game));
           out.printTeamForBracket(team, player);
           }
         else
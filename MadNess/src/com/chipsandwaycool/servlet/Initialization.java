@@ -1,7 +1,11 @@
 package com.chipsandwaycool.servlet;
 
 import com.chipsandwaycool.utility.Emailer;
+import com.chipsandwaycool.utility.MailDispatcher;
+import com.chipsandwaycool.servlet.utility.CompressingOutputStream;
 import com.chipsandwaycool.entity.MadnessDatabase;
+import com.chipsandwaycool.entity.ConnectionPool;
+import com.chipsandwaycool.entity.player.ScoringEngine;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import java.text.ParseException;
@@ -42,6 +46,7 @@ public class Initialization extends MadnessServlet
     if ((smtpHost == null) || (senderEmail == null))
       throw new NullPointerException("An SMTP host name and a sender email address must be specified in \"web.xml\".");
     Emailer.SetSMTPHost(smtpHost);
+    Emailer.SetSMTPPort((int)getLongParameter(servletConfig, "smtp-port", -1));
     Emailer.SetDefaultSender(senderEmail);
     String dataFiles = servletConfig.getInitParameter("data-files-dir");
     if (dataFiles == null)
@@ -53,6 +58,28 @@ public class Initialization extends MadnessServlet
     if (databaseURL == null)
       throw new NullPointerException("A database URL is required.");
     boolean rebuildDatabase = "true".equals(servletConfig.getInitParameter("rebuild-database"));
+    MadnessDatabase.ConfigurePool(
+          (int)getLongParameter(servletConfig, "pool-min-size", ConnectionPool.DEFAULT_MIN_SIZE),
+          (int)getLongParameter(servletConfig, "pool-max-size", ConnectionPool.DEFAULT_MAX_SIZE),
+          getLongParameter(servletConfig, "pool-borrow-timeout", ConnectionPool.DEFAULT_BORROW_TIMEOUT),
+          getLongParameter(servletConfig, "pool-leak-threshold", ConnectionPool.DEFAULT_LEAK_THRESHOLD),
+          "true".equals(servletConfig.getInitParameter("pool-leak-tracing")));
+    ScoringEngine.SetParallelThreshold((int)getLongParameter(servletConfig,
+          "parallel-scoring-threshold", ScoringEngine.DEFAULT_PARALLEL_THRESHOLD));
+    try
+      {
+      CompressingOutputStream.Configure(
+            (int)getLongParameter(servletConfig, "compression-min-size", CompressingOutputStream.DEFAULT_MIN_SIZE),
+            (int)getLongParameter(servletConfig, "compression-level", CompressingOutputStream.DEFAULT_LEVEL));
+      MailDispatcher.Configure(
+            (int)getLongParameter(servletConfig, "mail-workers", MailDispatcher.DEFAULT_WORKER_COUNT),
+            (int)getLongParameter(servletConfig, "mail-rate", MailDispatcher.DEFAULT_RATE),
+            getLongParameter(servletConfig, "mail-retry-delay", MailDispatcher.DEFAULT_RETRY_DELAY));
+      }
+    catch (IllegalArgumentException exception)
+      {
+      throw new ServletException(exception.getMessage(), exception);
+      }
     try
       {
       MadnessDatabase.Initialize(dataFiles, databaseURL, rebuildDatabase);
@@ -62,16 +89,44 @@ public class Initialization extends MadnessServlet
       exception.printStackTrace();
       throw new ServletException("There was an SQL exception while initializing the data layer.", exception);
       }
+    MailDispatcher.GetInstance();
     System.out.println("chipsandwaycool.com initialized.");
     }
 
 
+  /**
+   * Return the numeric value of an optional init-param, or 'defaultValue'
+   * if it isn't defined.
+   *
+   * @param servletConfig this servlet's configuration
+   * @param name the name of the init-param
+   * @param defaultValue the value to use if the init-param is missing
+   * @return the parameter's value
+   */
+  private long getLongParameter(ServletConfig servletConfig, String name,
+        long defaultValue) throws ServletException
+    {
+    String value = servletConfig.getInitParameter(name);
+    if (value == null)
+      return defaultValue;
+    try
+      {
+      return Long.parseLong(value.trim());
+      }
+    catch (NumberFormatException exception)
+      {
+      throw new ServletException("The \"" + name + "\" parameter should be a whole number, not \"" + value + "\".", exception);
+      }
+    }
+
+
   /**
    * Perform any cleanup needed for shutting down this site.
    */
   public void destroy()
     {
     super.destroy();
+    MailDispatcher.ShutDown();
     try { MadnessDatabase.GetInstance().shutDown(); }
     catch (Exception ignored) { }
     }
@@ -43,7 +43,7 @@ public class Instructions extends MadnessServlet
       out.printMenu(URL_INSTRUCTIONS);
     out.printBeginBox();
     out.printDIV("heading", "Instructions");
-    getServletContext().getRequestDispatcher("/Instructions.html").include(request, response);
+    include("/Instructions.html", request, response);
     out.printEndBox();
     out.printPostContent();
     }
@@ -85,7 +85,10 @@ public class Login extends MadnessServlet
       else if (!password.equals(player.getPassword()))
         error = "Your login credentials are invalid.  Please try again.";
       else
+        {
         session.setAttribute(P_PLAYER_ID, new Integer(player.getID()));
+        session.setAttribute(P_PRINCIPAL, playerMan.getPrincipal(new Integer(player.getID())));
+        }
       }
     return error;
     }
@@ -28,14 +28,18 @@ public interface MadnessConstants extends HTMLConstants
   public static final String P_FIRST_NAME = "firstName";
   public static final String P_GAME = "game";
   public static final String P_HOME = "home";
+  public static final String P_JOB = "job";
   public static final String P_LAST_NAME = "lastName";
   public static final String P_LOGIN_ERROR = "loginError";
   public static final String P_LOGOUT = "logout";
   public static final String P_NAME = "name";
   public static final String P_NICKNAME = "nickname";
+  public static final String P_PAGE = "page";
+  public static final String P_PAGE_SIZE = "pageSize";
   public static final String P_PASSWORD = "password";
   public static final String P_PICK = "pick";
   public static final String P_PLAYER_ID = "playerID";
+  public static final String P_PRINCIPAL = "principal";
   public static final String P_RANK = "rank";
   public static final String P_SAVE = "save";
   public static final String P_SKIN_NAME = "skinName";
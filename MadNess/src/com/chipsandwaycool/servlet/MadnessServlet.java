@@ -2,13 +2,20 @@ package com.chipsandwaycool.servlet;
 
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import com.chipsandwaycool.servlet.utility.MadnessWriterSkin1;
+import com.chipsandwaycool.servlet.utility.CompressingOutputStream;
 import com.chipsandwaycool.entity.player.PlayerManager;
+import com.chipsandwaycool.entity.player.Principal;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.http.HttpSession;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
@@ -28,6 +35,9 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
 
   private static DateFormat DateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
   protected static long CutoffDate = -1;
+  private static long StartTime = System.currentTimeMillis();
+  private static final String OUTPUT_ATTRIBUTE = "com.chipsandwaycool.servlet.output";
+  private static final String OUTPUT_STREAM_ATTRIBUTE = "com.chipsandwaycool.servlet.outputStream";
 
   protected int     m_securityBits = 0;
 
@@ -100,6 +110,15 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
    * security violations are taken as system errors, but if a non-public page
    * is accessed by a user who isn't logged in, we assume the session has
    * timed out (or a bookmark was used), and we forward to the home page.
+   * The logged-in player is known from the Principal in the session (see
+   * 'getPrincipal()'), so this usually takes no query.
+   * <br/><br/>
+   * A GET for a servlet that reports a data version (see 'getDataVersion()')
+   * is answered with "304 Not Modified", without rendering anything, if the
+   * browser already has the page for that version.
+   * <br/><br/>
+   * Whatever the page writes goes through one compressing writer for the
+   * request (see 'getOutput()'), which is closed here at the end.
    *
    * @param request a servlet request
    * @param response a servlet response
@@ -129,8 +148,7 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
         }
       else
         {
-        PlayerManager playerMan = PlayerManager.GetInstance();
-        playerIsAdmin = playerMan.select(playerID, false).getAdmin();
+        playerIsAdmin = getPrincipal(session).getAdmin();
         if (!playerIsAdmin)
           {
           if ((m_securityBits & SECURITY_USER) == 0)
@@ -145,6 +163,11 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
       if (((m_securityBits & SECURITY_NO_POSTCUTOFF) != 0)
             && GetCutoffDateIsPassed() && !playerIsAdmin)
         throw new ServletException("You may not access this servlet after the cutoff date:  " + CutoffDate + ".");
+      if (isNotModified(request, response, session, playerID, playerIsAdmin))
+        {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+        }
       doBoth(request, response, session, writer);
       }
     catch (Throwable error)
@@ -164,6 +187,129 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
           }
         }
       }
+    finally
+      {
+      PrintWriter output = (PrintWriter)(request.getAttribute(OUTPUT_ATTRIBUTE));
+      if (output != null)
+        output.close();
+      }
+    }
+
+
+  /**
+   * Return the Principal for the logged-in player, or null if nobody is
+   * logged in.  It is kept in the session, and only read again from the
+   * data store if the player has been updated since it was made.
+   *
+   * @param session the user's session
+   * @return the logged-in player's principal, or null
+   */
+  protected Principal getPrincipal(HttpSession session)
+    {
+    Integer playerID = (Integer)(session.getAttribute(P_PLAYER_ID));
+    if (playerID == null)
+      return null;
+    PlayerManager playerMan = PlayerManager.GetInstance();
+    Principal principal = (Principal)(session.getAttribute(P_PRINCIPAL));
+    if ((principal == null) || (principal.getID() != playerID.intValue())
+          || !playerMan.getPrincipalIsCurrent(principal))
+      {
+      principal = playerMan.getPrincipal(playerID);
+      session.setAttribute(P_PRINCIPAL, principal);
+      }
+    return principal;
+    }
+
+
+  /**
+   * Return a string identifying the version of the data this servlet's page
+   * is made from, or null if the page can't be validated that way, which is
+   * the default.  A servlet overriding this opts in to conditional GETs:  the
+   * version, together with the viewer's identity and skin and whether the
+   * cutoff has passed, becomes the page's entity tag.  The version must
+   * change whenever anything on the page might, apart from those.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the data version of the page, or null
+   */
+  protected String getDataVersion(HttpServletRequest request, HttpSession session)
+    {
+    return null;
+    }
+
+
+  /**
+   * Return the time the data this servlet's page is made from last changed,
+   * for the "Last-Modified" header, or -1 if it isn't known.  This is only
+   * called if 'getDataVersion()' returns a version.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the time of the last change, in milliseconds, or -1
+   */
+  protected long getDataModifiedTime(HttpServletRequest request, HttpSession session)
+    {
+    return -1;
+    }
+
+
+  /**
+   * Set the validator headers for this servlet's page, if it has a data
+   * version, and return whether the browser's copy is still current.  An
+   * "If-None-Match" header, if sent, decides it.  Otherwise the
+   * "If-Modified-Since" date is only trusted if this session was last sent
+   * the same entity tag for this servlet, since the date alone can't tell
+   * that the viewer or skin has changed.
+   *
+   * @param request a servlet request
+   * @param response a servlet response
+   * @param session the user's session
+   * @param playerID the logged-in player's ID, or null
+   * @param playerIsAdmin whether the player is an administrator
+   * @return whether the browser's copy of the page is current
+   */
+  private boolean isNotModified(HttpServletRequest request, HttpServletResponse response,
+        HttpSession session, Integer playerID, boolean playerIsAdmin)
+    {
+    if (!"GET".equals(request.getMethod()))
+      return false;
+    String dataVersion = getDataVersion(request, session);
+    if (dataVersion == null)
+      return false;
+    String entityTag = "W/\"" + Long.toHexString(StartTime) + "-" + getServletName()
+          + "-" + ((playerID != null) ? playerID.toString() : "0") + (playerIsAdmin ? "a" : "p")
+          + (GetCutoffDateIsPassed() ? "c" : "o") + "-" + getSkinName(session, false)
+          + "-" + dataVersion + "\"";
+    long modifiedTime = Math.max(StartTime, getDataModifiedTime(request, session));
+    if (GetCutoffDateIsPassed())
+      modifiedTime = Math.max(modifiedTime, CutoffDate);
+    response.setHeader("Cache-Control", "private, no-cache");
+    response.setHeader("ETag", entityTag);
+    response.setDateHeader("Last-Modified", modifiedTime);
+    String tagAttribute = "entityTag." + getServletName();
+    Object previousTag = session.getAttribute(tagAttribute);
+    session.setAttribute(tagAttribute, entityTag);
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null)
+      {
+      String[] tags = ifNoneMatch.split(",");
+      for (int i = 0; i < tags.length; i++)
+        {
+        String tag = tags[i].trim();
+        if (tag.equals("*") || tag.equals(entityTag) || tag.equals(entityTag.substring(2)))
+          return true;
+        }
+      return false;
+      }
+    long ifModifiedSince = -1;
+    try
+      {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+      }
+    catch (IllegalArgumentException ignored) { }
+    return (ifModifiedSince >= 0) && entityTag.equals(previousTag)
+          && ((modifiedTime / 1000) <= (ifModifiedSince / 1000));
     }
 
 
@@ -171,6 +317,8 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
    * Construct and return a MadnessWriter (or subclass) for the given request
    * object.  This implements the "skin" feature, but it may also be useful
    * if one or more servlets wanted to use a more specialized HTML writer.
+   * The writer is also given the compressing stream beneath its output, so
+   * included files can be written to it as bytes.
    *
    * @param request a servlet request for whose output a writer is needed
    * @param response the servlet response
@@ -180,10 +328,81 @@ public abstract class MadnessServlet extends HttpServlet implements MadnessConst
         HttpServletResponse response, HttpSession session) throws IOException
     {
     String skinName = getSkinName(session, false);
+    PrintWriter output = getOutput(request, response);
+    MadnessWriter writer = null;
     if ("skin1".equals(skinName))
-      return new MadnessWriterSkin1(response.getWriter(), request.getContextPath());
+      writer = new MadnessWriterSkin1(output, request.getContextPath());
     else
-      return new MadnessWriter(response.getWriter(), request.getContextPath());
+      writer = new MadnessWriter(output, request.getContextPath());
+    writer.setByteOutput((OutputStream)(request.getAttribute(OUTPUT_STREAM_ATTRIBUTE)),
+          response.getCharacterEncoding());
+    return writer;
+    }
+
+
+  /**
+   * Include the output of another resource, such as a static HTML file, at
+   * this point in the page.  The resource is given a wrapped response whose
+   * writer is this request's own (see 'getOutput()'), so what it writes
+   * follows what the page has written so far, and is compressed along with
+   * it.  The wrapper won't give out an output stream, as a response whose
+   * writer is in use may not, so the container's default servlet falls back
+   * to the writer.
+   *
+   * @param path the context-relative path of the resource
+   * @param request a servlet request
+   * @param response the servlet response
+   */
+  protected void include(String path, HttpServletRequest request, HttpServletResponse response)
+        throws ServletException, IOException
+    {
+    final PrintWriter output = getOutput(request, response);
+    getServletContext().getRequestDispatcher(path).include(request,
+          new HttpServletResponseWrapper(response)
+      {
+      public PrintWriter getWriter()
+        {
+        return output;
+        }
+
+      public ServletOutputStream getOutputStream()
+        {
+        throw new IllegalStateException("This response is being written through its writer.");
+        }
+
+      public void flushBuffer()
+        {
+        output.flush();
+        }
+      });
+    }
+
+
+  /**
+   * Return the PrintWriter for the body of this response, creating it on
+   * the first call for the request.  Like the response's own writer, there
+   * is just one per request, even across forwards.  It writes through a
+   * CompressingOutputStream, using whichever compression the browser
+   * accepts.  It is closed, completing the response, by 'doBoth()'.
+   *
+   * @param request a servlet request
+   * @param response the servlet response
+   * @return the writer for the response body
+   */
+  private PrintWriter getOutput(HttpServletRequest request, HttpServletResponse response)
+        throws IOException
+    {
+    PrintWriter output = (PrintWriter)(request.getAttribute(OUTPUT_ATTRIBUTE));
+    if (output == null)
+      {
+      String encoding = CompressingOutputStream.ChooseEncoding(request.getHeader("Accept-Encoding"));
+      response.addHeader("Vary", "Accept-Encoding");
+      CompressingOutputStream stream = new CompressingOutputStream(response, encoding);
+      output = new PrintWriter(new OutputStreamWriter(stream, response.getCharacterEncoding()));
+      request.setAttribute(OUTPUT_ATTRIBUTE, output);
+      request.setAttribute(OUTPUT_STREAM_ATTRIBUTE, stream);
+      }
+    return output;
     }
 
 
@@ -3,8 +3,9 @@ package com.chipsandwaycool.servlet.game;
 import com.chipsandwaycool.servlet.MadnessServlet;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import com.chipsandwaycool.entity.game.GameManager;
-import com.chipsandwaycool.entity.game.Game;
+import com.chipsandwaycool.entity.game.Bracket;
 import com.chipsandwaycool.entity.team.TeamManager;
+import com.chipsandwaycool.entity.team.TeamTable;
 import com.chipsandwaycool.entity.team.Team;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -12,7 +13,6 @@ import javax.servlet.http.HttpSession;
 import javax.servlet.ServletException;
 import javax.servlet.ServletConfig;
 import java.io.IOException;
-import java.util.Map;
 
 /**
  * The Edit Winners page is used to enter and modify the winners of any game
@@ -48,9 +48,9 @@ public class EditWinners extends MadnessServlet
         HttpSession session, MadnessWriter out) throws ServletException, IOException
     {
     GameManager gameMan = GameManager.GetInstance();
-    Game[] games = gameMan.getGamesInBracketOutputOrder();
+    Bracket bracket = gameMan.getBracket();
     TeamManager teamMan = TeamManager.GetInstance();
-    Map teams = teamMan.selectAllAsMap();
+    TeamTable teams = teamMan.getTeamTable();
     out.printPreContent();
     out.printMenu(null);
     out.printBeginBox(true);
@@ -68,22 +68,22 @@ public class EditWinners extends MadnessServlet
     out.print(END_TR + TR);
     out.printBeginTD(null, "firstColumn");
     boolean firstInColumn = true;
-    for (int i = 0; i < games.length; i++)
+    for (int i = 0; i < Bracket.GAME_COUNT; i++)
       {
-      if ((games[i].getTeam1ID() >= 0) && (games[i].getTeam2ID() >= 0))
+      if ((bracket.getTeam1ID(i) >= 0) && (bracket.getTeam2ID(i) >= 0))
         {
         if (!firstInColumn)
           out.print(BR + BR + NL);
         firstInColumn = false;
         out.print("Game ");
-        out.print(games[i].getPosition() + 1);
+        out.print(Bracket.GetPosition(i) + 1);
         out.print(":" + BR);
-        out.printBeginSELECT(P_GAME + games[i].getID(), null);
-        String winningTeamID = Integer.toString(games[i].getWinningTeamID());
+        out.printBeginSELECT(P_GAME + bracket.getGameID(i), null);
+        String winningTeamID = Integer.toString(bracket.getWinningTeamID(i));
         out.printOPTION("-1", "(unknown)", winningTeamID);
-        Team team = (Team)(teams.get(new Integer(games[i].getTeam1ID())));
+        Team team = teams.getTeam(bracket.getTeam1ID(i));
         out.printOPTION(Integer.toString(team.getID()), team.getHome(), winningTeamID);
-        team = (Team)(teams.get(new Integer(games[i].getTeam2ID())));
+        team = teams.getTeam(bracket.getTeam2ID(i));
         out.printOPTION(Integer.toString(team.getID()), team.getHome(), winningTeamID);
         out.print(NL + END_SELECT + NL);
         }
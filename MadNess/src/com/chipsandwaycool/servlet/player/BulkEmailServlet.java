@@ -0,0 +1,99 @@
+package com.chipsandwaycool.servlet.player;
+
+import com.chipsandwaycool.utility.MailDispatcher;
+import com.chipsandwaycool.entity.mail.MailJob;
+import com.chipsandwaycool.servlet.MadnessServlet;
+import com.chipsandwaycool.servlet.utility.MadnessWriter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.ServletException;
+import javax.servlet.ServletConfig;
+import java.io.IOException;
+
+/**
+ * This is the base of the servlets that email all the active players.  A
+ * request hands the emails to the MailDispatcher, which puts them in the
+ * outbox and sends them in the background, and is redirected straight to
+ * this servlet's status page for the job, identified by the "job"
+ * parameter.  That page shows how many emails have been sent, how many are
+ * waiting to be retried and how many have failed so far, and can be
+ * reloaded freely, since it doesn't send anything itself.  Queueing the
+ * same emails again within a few minutes just leads back to the same job.
+ */
+public abstract class BulkEmailServlet extends MadnessServlet
+  {
+
+  /**
+   * Initialize this servlet as needed.
+   *
+   * @param servletConfig an object for configuring this servlet
+   */
+  public void init(ServletConfig servletConfig) throws ServletException
+    {
+    super.init(servletConfig);
+    m_securityBits = SECURITY_ADMIN;
+    }
+
+
+  /**
+   * Service a request to this servlet using a MadnessWriter for output.
+   *
+   * @param request a servlet request
+   * @param response a servlet response
+   * @param session the user's session
+   * @param out a MadnessWriter for output
+   */
+  protected void doBoth(HttpServletRequest request, HttpServletResponse response,
+        HttpSession session, MadnessWriter out) throws ServletException, IOException
+    {
+    String jobID = request.getParameter(P_JOB);
+    if (jobID == null)
+      {
+      MailJob job = submitEmails();
+      response.sendRedirect(request.getContextPath() + request.getServletPath()
+            + "?" + P_JOB + "=" + job.getID());
+      return;
+      }
+    MailJob job = null;
+    try
+      {
+      job = MailDispatcher.GetInstance().getJob(Integer.parseInt(jobID));
+      }
+    catch (NumberFormatException ignored) { }
+    out.printPreContent();
+    out.printMenu(null);
+    out.printBeginBox();
+    if (job == null)
+      out.print("There is no record of those emails.");
+    else
+      {
+      out.printDIV("heading", job.getFinished() ? "Emails Sent" : "Sending Emails");
+      out.printHTMLEscape("\"" + job.getSubject() + "\":  ");
+      out.print(job.getSentCount() + " of " + job.getTotalCount() + " emails sent");
+      if (job.getRetryingCount() > 0)
+        out.print(", " + job.getRetryingCount() + " waiting to be retried");
+      if (job.getFailedCount() > 0)
+        out.print(", " + job.getFailedCount() + " could not be sent");
+      out.print(".");
+      if (!job.getFinished())
+        {
+        out.print(BR + BR);
+        out.printA(request.getServletPath() + "?" + P_JOB + "=" + job.getID(), "Check again");
+        }
+      else if (job.getFailedCount() > 0)
+        out.print(BR + BR + "There are many reasons why an email might not be sent.  Possibly one of the players' email addresses is malformed.");
+      }
+    out.printEndBox();
+    out.printPostContent();
+    }
+
+
+  /**
+   * Hand the emails to the MailDispatcher, returning their job.
+   *
+   * @return the job sending the emails
+   */
+  protected abstract MailJob submitEmails();
+
+  }
@@ -1,75 +1,29 @@
 package com.chipsandwaycool.servlet.player;
 
 import com.chipsandwaycool.entity.player.PlayerWithScores;
-import com.chipsandwaycool.utility.Emailer;
-import com.chipsandwaycool.servlet.MadnessServlet;
-import com.chipsandwaycool.servlet.utility.MadnessWriter;
+import com.chipsandwaycool.utility.MailDispatcher;
+import com.chipsandwaycool.entity.mail.MailJob;
 import com.chipsandwaycool.entity.team.TeamManager;
 import com.chipsandwaycool.entity.player.PlayerManager;
 import com.chipsandwaycool.entity.player.Player;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
-import javax.servlet.ServletException;
-import javax.servlet.ServletConfig;
-import java.io.IOException;
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
 
 /**
- * This servlet uses the Emailer to send a list of everyone's current scores
- * to everyone else.  It then indicates success or failure to send all emails.
+ * This servlet uses the MailDispatcher to send a list of everyone's current
+ * scores to everyone else.  It then shows how the sending is going.
  */
-public class EmailScores extends MadnessServlet
+public class EmailScores extends BulkEmailServlet
   {
 
-  /**
-   * Initialize this servlet as needed.
-   *
-   * @param servletConfig an object for configuring this servlet
-   */
-  public void init(ServletConfig servletConfig) throws ServletException
-    {
-    super.init(servletConfig);
-    m_securityBits = SECURITY_ADMIN;
-    }
-
-
-  /**
-   * Service a request to this servlet using a MadnessWriter for output.
-   *
-   * @param request a servlet request
-   * @param response a servlet response
-   * @param session the user's session
-   * @param out a MadnessWriter for output
-   */
-  protected void doBoth(HttpServletRequest request, HttpServletResponse response,
-        HttpSession session, MadnessWriter out) throws ServletException, IOException
-    {
-    out.printPreContent();
-    out.printMenu(null);
-    out.printBeginBox();
-    if (emailScores())
-      {
-      out.printDIV("heading", "Emails Sent");
-      out.print("All emails were sent successfully.");
-      out.print(BR + BR + "Be careful not to reload this page, for that will resend all the emails.");
-      }
-    else
-      out.print("Unfortunately, one or more emails could not be sent.  There are many reasons why this might be.  Possibly one of the players' email addresses is malformed.");
-    out.printEndBox();
-    out.printPostContent();
-    }
-
-
   /**
    * Email a list of all players' scores to all the players having email
-   * addresses.  Return whether all emails were sent successfully.
+   * addresses, in the background.
    *
-   * @return whether there were any problems sending the emails
+   * @return the job sending the emails
    */
-  private boolean emailScores()
+  protected MailJob submitEmails()
     {
     PlayerManager playerMan = PlayerManager.GetInstance();
     List players = playerMan.getPlayersWithScores();
@@ -96,18 +50,14 @@ public class EmailScores extends MadnessServlet
         body.append(" ");
       body.append(player.getPotentialScore());
       }
-    Emailer emailer = new Emailer();
-    String subject = "Chips and Way Cool Current Scores";
-    boolean allEmailsSucceeded = true;
+    List recipients = new ArrayList();
     for (Iterator i = players.iterator(); i.hasNext(); )
       {
       Player player = (Player)(i.next());
-      if (!player.getActive() || (player.getEmail() == null))
-        continue;
-      if (!emailer.sendEmail(null, player.getEmail(), subject, body.toString()))
-        allEmailsSucceeded = false;
+      if (player.getActive() && (player.getEmail() != null))
+        recipients.add(player.getEmail());
       }
-    return allEmailsSucceeded;
+    return MailDispatcher.GetInstance().submit("Chips and Way Cool Current Scores", body.toString(), recipients);
     }
 
   }
@@ -2,8 +2,10 @@ package com.chipsandwaycool.servlet.player;
 
 import com.chipsandwaycool.servlet.MadnessServlet;
 import com.chipsandwaycool.entity.player.Player;
+import com.chipsandwaycool.entity.player.Principal;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import com.chipsandwaycool.entity.team.TeamManager;
+import com.chipsandwaycool.entity.team.TeamTable;
 import com.chipsandwaycool.entity.team.Team;
 import com.chipsandwaycool.entity.player.PlayerManager;
 import javax.servlet.ServletException;
@@ -14,7 +16,6 @@ import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Arrays;
 
 /**
  * This is the page where users can choose the twenty teams they think
@@ -50,22 +51,27 @@ public class Picks extends MadnessServlet
         HttpSession session, MadnessWriter out) throws ServletException, IOException
     {
     PlayerManager playerMan = PlayerManager.GetInstance();
-    Player player = playerMan.select(session.getAttribute(P_PLAYER_ID), true);
-    boolean readOnly = GetCutoffDateIsPassed() && !player.getAdmin();
+    Principal principal = getPrincipal(session);
+    boolean readOnly = GetCutoffDateIsPassed() && !principal.getAdmin();
     String playerID = request.getParameter(P_PLAYER_ID);
-    if (playerID != null)
-      if (readOnly || player.getAdmin())
-        player = playerMan.select(playerID, true);
-      else
-        throw new ServletException("You may not view other players' picks until the cutoff date has passed:  " + CutoffDate + ".");
+    Player player = null;
+    if (playerID == null)
+      player = playerMan.select(new Integer(principal.getID()), true);
+    else if (readOnly || principal.getAdmin())
+      player = playerMan.select(playerID, true);
+    else
+      throw new ServletException("You may not view other players' picks until the cutoff date has passed:  " + CutoffDate + ".");
     TeamManager teamMan = TeamManager.GetInstance();
-    Team[] teams = teamMan.selectAll();
-    Map selectTeams = getDropDownMap(teams);
+    TeamTable teamTable = teamMan.getTeamTable();
+    Team[] teams = teamTable.getTeamsByRank();
+    Map selectTeams = getDropDownMap(teamTable);
     out.printPreContent(null, out.SCRIPTFile("/js/picks.js"));
     out.printMenu(URL_PICKS);
     out.printBeginBox();
     if ("true".equals(request.getAttribute(P_SUCCESS)))
       out.printDIV("smallHeading", "Team picks were saved successfully.");
+    else if ("unchanged".equals(request.getAttribute(P_SUCCESS)))
+      out.printDIV("smallHeading", "Team picks were already up to date; nothing was changed.");
     out.printDIV("reminder", "(Reminder:  \"Pick 20\" represents the team you think likeliest to win.  \"Pick 1\" is the least likely.)");
     out.print(NL);
     out.printBeginTABLE(0, 0, 0, "100%");
@@ -139,19 +145,16 @@ public class Picks extends MadnessServlet
 
 
   /**
-   * Without re-sorting 'teams' itself, create an return a sorted Map to be
-   * used for the options in a SELECT element, with the teams re-sorted by
-   * University name.  Include a no-selection option.
+   * Create and return a sorted Map to be used for the options in a SELECT
+   * element, with the teams sorted by University name.  Include a
+   * no-selection option.
    *
-   * @param teams an array of Teams
-   * @return a re-sorted Map of the teams
+   * @param teams the table of all the teams
+   * @return a sorted Map of the teams
    */
-  private Map getDropDownMap(Team[] teams)
+  private Map getDropDownMap(TeamTable teams)
     {
-    Team[] alphaTeams = new Team[teams.length];
-    for (int i = 0; i < teams.length; i++)
-      alphaTeams[i] = teams[i];
-    Arrays.sort(alphaTeams);
+    Team[] alphaTeams = teams.getTeamsByHome();
     Map teamMap = new LinkedHashMap(alphaTeams.length + 1);
     teamMap.put("-1", "(select)");
     for (int i = 0; i < alphaTeams.length; i++)
@@ -3,7 +3,7 @@ package com.chipsandwaycool.servlet.player;
 import com.chipsandwaycool.servlet.MadnessServlet;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import com.chipsandwaycool.entity.player.PlayerManager;
-import com.chipsandwaycool.entity.player.Player;
+import com.chipsandwaycool.entity.player.Principal;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletConfig;
@@ -45,7 +45,7 @@ public class PicksAction extends MadnessServlet
         HttpSession session, MadnessWriter out) throws ServletException, IOException
     {
     PlayerManager playerMan = PlayerManager.GetInstance();
-    Player player = playerMan.select(session.getAttribute(P_PLAYER_ID), false);
+    Principal player = getPrincipal(session);
     String playerID = request.getParameter(P_PLAYER_ID);
     if (!player.getAdmin())
       if (playerID != null)
@@ -62,8 +62,8 @@ public class PicksAction extends MadnessServlet
       }
     Integer playerIDInteger = (playerID != null)
           ? new Integer(playerID) : new Integer(player.getID());
-    playerMan.setPlayerPicks(playerIDInteger, picks);
-    request.setAttribute(P_SUCCESS, "true");
+    int rowsWritten = playerMan.setPlayerPicks(playerIDInteger, picks);
+    request.setAttribute(P_SUCCESS, (rowsWritten > 0) ? "true" : "unchanged");
     getServletContext().getRequestDispatcher(URL_PICKS).forward(request, response);
     }
 
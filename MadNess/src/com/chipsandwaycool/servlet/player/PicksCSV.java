@@ -3,18 +3,17 @@ package com.chipsandwaycool.servlet.player;
 import com.chipsandwaycool.servlet.MadnessServlet;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
 import com.chipsandwaycool.entity.team.TeamManager;
+import com.chipsandwaycool.entity.team.TeamTable;
 import com.chipsandwaycool.entity.team.Team;
 import com.chipsandwaycool.entity.player.PlayerManager;
 import com.chipsandwaycool.entity.player.Player;
+import com.chipsandwaycool.entity.player.PlayerVisitor;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.servlet.ServletException;
 import javax.servlet.ServletConfig;
 import java.io.IOException;
-import java.util.Map;
-import java.util.List;
-import java.util.Iterator;
 
 /**
  * This servlet outputs a CSV file (with the appropriate content-type header)
@@ -25,6 +24,10 @@ import java.util.Iterator;
 public class PicksCSV extends MadnessServlet
   {
 
+  private static final int FLUSH_ROWS = 1000;
+
+
+
   /**
    * Initialize this servlet as needed.
    *
@@ -39,6 +42,8 @@ public class PicksCSV extends MadnessServlet
 
   /**
    * Service a request to this servlet using a MadnessWriter for output.
+   * The players are streamed from the data store and written out a row at
+   * a time, so even a huge pool is exported in constant memory.
    *
    * @param request a servlet request
    * @param response a servlet response
@@ -48,10 +53,8 @@ public class PicksCSV extends MadnessServlet
   protected void doBoth(HttpServletRequest request, HttpServletResponse response,
         HttpSession session, MadnessWriter out) throws ServletException, IOException
     {
-    PlayerManager playerMan = PlayerManager.GetInstance();
-    List players = playerMan.selectAll(true);
     TeamManager teamMan = TeamManager.GetInstance();
-    Map teams = teamMan.selectAllAsMap();
+    TeamTable teams = teamMan.getTeamTable();
     response.setContentType("text/csv");
     out.print("\"Player Name\",\"Email\"");
     for (int i = 20; i > 0; i--)
@@ -60,26 +63,51 @@ public class PicksCSV extends MadnessServlet
       out.print(i);
       out.print("\"");
       }
-    for (Iterator i = players.iterator(); i.hasNext(); )
+    PlayerManager.GetInstance().visitPlayersWithPicks(true, new RowWriter(out, teams));
+    }
+
+
+
+  /**
+   * This writes each player it visits as a row of the CSV file, flushing
+   * the output every so many rows, so it goes out in chunks as it's made,
+   * compressed or not.  The last chunk goes out when the response is closed.
+   */
+  private static class RowWriter implements PlayerVisitor
+    {
+
+    private MadnessWriter   m_out = null;
+    private TeamTable       m_teams = null;
+    private int             m_rowCount = 0;
+
+
+    RowWriter(MadnessWriter out, TeamTable teams)
+      {
+      m_out = out;
+      m_teams = teams;
+      }
+
+
+    public void visit(Player player) throws IOException
       {
-      Player player = (Player)(i.next());
-      if (!player.getActive())
-        continue;
-      out.print(NL);
-      out.printCSVString(player.getCompleteName());
-      out.print(",");
+      m_out.print(NL);
+      m_out.printCSVString(player.getCompleteName());
+      m_out.print(",");
       if (player.getEmail() != null)
-        out.printCSVString(player.getEmail());
+        m_out.printCSVString(player.getEmail());
       for (int j = 19; j >= 0; j--)
         {
-        out.print(",");
-        Team team = (Team)(teams.get(new Integer(player.getPick(j))));
+        m_out.print(",");
+        Team team = m_teams.getTeam(player.getPick(j));
         if (team != null)
-          out.printCSVString(team.getHome());
+          m_out.printCSVString(team.getHome());
         else
-          out.print("\"(no pick)\"");
+          m_out.print("\"(no pick)\"");
         }
+      if ((++m_rowCount % FLUSH_ROWS) == 0)
+        m_out.flush();
       }
+
     }
 
   }
@@ -1,27 +1,44 @@
 package com.chipsandwaycool.servlet.player;
 
 import com.chipsandwaycool.servlet.MadnessServlet;
-import com.chipsandwaycool.entity.player.Player;
+import com.chipsandwaycool.entity.player.Principal;
 import com.chipsandwaycool.servlet.utility.MadnessWriter;
+import com.chipsandwaycool.servlet.utility.FragmentCache;
+import com.chipsandwaycool.servlet.utility.CompressingOutputStream;
 import com.chipsandwaycool.entity.player.PlayerManager;
 import com.chipsandwaycool.entity.player.PlayerWithScores;
+import com.chipsandwaycool.entity.player.ScoreboardPage;
 import javax.servlet.ServletException;
 import javax.servlet.ServletConfig;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Iterator;
-import java.util.List;
 
 /**
  * The Scoreboard is where each player (user) on this site is listed along
  * with their scores for each round, total scores and highest potential
- * scores, for comparison.
+ * scores, for comparison.  Big pools are listed a page at a time.
+ * <br/><br/>
+ * The players' rows of each page are cached, rendered, until the standings
+ * version changes, which happens whenever winners or picks are saved.  They
+ * are cached separately for admins and players, and for before and after
+ * the cutoff, since those see different links.
  */
 public class Scoreboard extends MadnessServlet
   {
 
+  private static final int DEFAULT_PAGE_SIZE = 50;
+  private static final int MAX_PAGE_SIZE = 500;
+  private static final int MAX_CACHED_TABLES = 64;
+
+  private FragmentCache   m_tableCache = new FragmentCache(MAX_CACHED_TABLES);
+
+
+
   /**
    * Initialize this servlet as needed.
    *
@@ -34,8 +51,41 @@ public class Scoreboard extends MadnessServlet
     }
 
 
+  /**
+   * Return the standings version, so a browser refreshing this page is told
+   * when nothing has changed.  Administrators always get a fresh page, since
+   * it reports the table cache's counts.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the data version of the page, or null
+   */
+  protected String getDataVersion(HttpServletRequest request, HttpSession session)
+    {
+    if (getPrincipal(session).getAdmin())
+      return null;
+    return String.valueOf(PlayerManager.GetInstance().getStandingsVersion());
+    }
+
+
+  /**
+   * Return the time the standings last changed.
+   *
+   * @param request a servlet request
+   * @param session the user's session
+   * @return the time of the last change, in milliseconds
+   */
+  protected long getDataModifiedTime(HttpServletRequest request, HttpSession session)
+    {
+    return PlayerManager.GetInstance().getStandingsModifiedTime();
+    }
+
+
   /**
    * Service a request to this servlet using a MadnessWriter for output.
+   * Only one page of players is listed, chosen by the optional 'page' and
+   * 'pageSize' parameters, plus the current player's own row if it falls
+   * on another page.  A page past the last is taken to mean the last.
    *
    * @param request a servlet request
    * @param response a servlet response
@@ -46,9 +96,24 @@ public class Scoreboard extends MadnessServlet
         HttpSession session, MadnessWriter out) throws ServletException, IOException
     {
     PlayerManager playerMan = PlayerManager.GetInstance();
-    Player currentPlayer = playerMan.select(session.getAttribute("playerID"), false);
-    List players = playerMan.getPlayersWithScores();
+    Principal currentPlayer = getPrincipal(session);
+    int pageSize = Math.min(MAX_PAGE_SIZE,
+          getIntParameter(request, P_PAGE_SIZE, DEFAULT_PAGE_SIZE));
+    int playerCount = playerMan.getScoreboardSize(currentPlayer.getAdmin());
+    int lastPage = Math.max(1, (playerCount + pageSize - 1) / pageSize);
+    int pageNumber = Math.min(lastPage, getIntParameter(request, P_PAGE, 1));
+    int offset = (pageNumber - 1) * pageSize;
     boolean linkPicks = GetCutoffDateIsPassed() || currentPlayer.getAdmin();
+    long version = playerMan.getStandingsVersion();
+    String cacheKey = currentPlayer.getAdmin() + "," + linkPicks + "," + pageNumber + "," + pageSize;
+    String rows = m_tableCache.get(cacheKey, version);
+    ScoreboardPage page = playerMan.getScoreboardPage(offset, (rows == null) ? pageSize : 0,
+          session.getAttribute("playerID"), currentPlayer.getAdmin());
+    if (rows == null)
+      {
+      rows = renderRows(request, page, currentPlayer, linkPicks);
+      m_tableCache.put(cacheKey, version, rows);
+      }
     out.printPreContent();
     out.printMenu(URL_SCOREBOARD);
     out.printBeginBox(true);
@@ -61,40 +126,24 @@ public class Scoreboard extends MadnessServlet
       out.print(ROUND_NAMES[i]);
       }
     out.print(END_TH + TH + "Total" + END_TH + TH + "Potential" + END_TH + END_TR + NL);
-    for (Iterator i = players.iterator(); i.hasNext(); )
+    out.print(rows);
+    if ((page.getViewer() != null)
+          && ((page.getViewerRank() <= offset) || (page.getViewerRank() > offset + pageSize)))
       {
-      PlayerWithScores player = (PlayerWithScores)(i.next());
-      if (!player.getActive() && !currentPlayer.getAdmin())
-        continue;
       out.print(TR);
-      out.printBeginTD(null, "firstColumn");
-      if (!player.getActive())
-        out.printBeginSPAN("inactive");
-      if (!linkPicks)
-        out.print(player.getShortName());
-      else
-        out.printA(URL_PICKS + "?" + P_PLAYER_ID + "=" + player.getID(),
-              player.getShortName(), player.getActive() ? null : "inactive");
-      if (currentPlayer.getAdmin())
-        {
-        out.print(" ");
-        out.printA(URL_EDIT_PLAYER + "?" + P_PLAYER_ID + "=" + player.getID(), "(edit)");
-        }
-      if (!player.getActive())
-        out.print(END_SPAN);
-      for (int j = 0; j < 6; j++)
-        {
-        out.print(END_TD + TD);
-        out.print(player.getScore(j));
-        }
-      out.print(END_TD + TD);
-      out.print(player.getTotalScore());
-      out.print(END_TD + TD);
-      out.print(player.getPotentialScore());
-      out.print(END_TD + NL + END_TR);
+      out.printBeginTD(9, 1);
+      out.print("..." + END_TD + END_TR + NL);
+      printPlayerRow(out, page.getViewer(), page.getViewerRank(), currentPlayer, linkPicks);
       }
     out.printBeginTR("bottom");
     out.printBeginTD(9, 1);
+    printPageLinks(out, page, pageNumber, pageSize);
+    if (currentPlayer.getAdmin())
+      {
+      out.print(BR + "Table cache:  " + m_tableCache + ".");
+      out.print(BR + "Compression:  " + CompressingOutputStream.GetBytesIn() + " bytes in, "
+            + CompressingOutputStream.GetBytesOut() + " bytes out.");
+      }
     out.print(BR + END_TABLE_3);
     out.printEndBox();
     if (currentPlayer.getAdmin())
@@ -102,4 +151,126 @@ public class Scoreboard extends MadnessServlet
     out.printPostContent();
     }
 
+
+  /**
+   * Render the rows of the players on a page of the scoreboard, returning
+   * them as a string of HTML for caching.
+   *
+   * @param request the servlet request
+   * @param page the page of the scoreboard to be rendered
+   * @param currentPlayer the player viewing the page
+   * @param linkPicks whether to link players' names to their picks
+   * @return the HTML for the rows
+   */
+  private String renderRows(HttpServletRequest request, ScoreboardPage page,
+        Principal currentPlayer, boolean linkPicks) throws IOException
+    {
+    StringWriter buffer = new StringWriter();
+    PrintWriter writer = new PrintWriter(buffer);
+    MadnessWriter out = new MadnessWriter(writer, request.getContextPath());
+    int rank = page.getOffset();
+    for (Iterator i = page.getPlayers().iterator(); i.hasNext(); )
+      printPlayerRow(out, (PlayerWithScores)(i.next()), ++rank, currentPlayer, linkPicks);
+    writer.flush();
+    return buffer.toString();
+    }
+
+
+  /**
+   * Print one player's row of the scoreboard table.
+   *
+   * @param out a MadnessWriter for output
+   * @param player the player to be listed
+   * @param rank the player's rank on the scoreboard
+   * @param currentPlayer the player viewing the page
+   * @param linkPicks whether to link the player's name to their picks
+   */
+  private void printPlayerRow(MadnessWriter out, PlayerWithScores player, int rank,
+        Principal currentPlayer, boolean linkPicks) throws IOException
+    {
+    out.print(TR);
+    out.printBeginTD(null, "firstColumn");
+    if (!player.getActive())
+      out.printBeginSPAN("inactive");
+    out.print(rank + ". ");
+    if (!linkPicks)
+      out.print(player.getShortName());
+    else
+      out.printA(URL_PICKS + "?" + P_PLAYER_ID + "=" + player.getID(),
+            player.getShortName(), player.getActive() ? null : "inactive");
+    if (currentPlayer.getAdmin())
+      {
+      out.print(" ");
+      out.printA(URL_EDIT_PLAYER + "?" + P_PLAYER_ID + "=" + player.getID(), "(edit)");
+      }
+    if (!player.getActive())
+      out.print(END_SPAN);
+    for (int j = 0; j < 6; j++)
+      {
+      out.print(END_TD + TD);
+      out.print(player.getScore(j));
+      }
+    out.print(END_TD + TD);
+    out.print(player.getTotalScore());
+    out.print(END_TD + TD);
+    out.print(player.getPotentialScore());
+    out.print(END_TD + NL + END_TR);
+    }
+
+
+  /**
+   * Print which players are listed, and links to the previous and next
+   * pages, if there are any.
+   *
+   * @param out a MadnessWriter for output
+   * @param page the page of the scoreboard being shown
+   * @param pageNumber the number of that page, starting at 1
+   * @param pageSize the most players on a page
+   */
+  private void printPageLinks(MadnessWriter out, ScoreboardPage page, int pageNumber,
+        int pageSize) throws IOException
+    {
+    if (page.getTotalCount() <= pageSize)
+      return;
+    int shown = Math.min(pageSize, page.getTotalCount() - page.getOffset());
+    if (shown > 0)
+      out.print("Players " + (page.getOffset() + 1) + " to "
+            + (page.getOffset() + shown) + " of " + page.getTotalCount() + ".  ");
+    if (pageNumber > 1)
+      {
+      out.printA(URL_SCOREBOARD + "?" + P_PAGE + "=" + (pageNumber - 1) + "&amp;"
+            + P_PAGE_SIZE + "=" + pageSize, "previous");
+      out.print(" ");
+      }
+    if (page.getOffset() + shown < page.getTotalCount())
+      out.printA(URL_SCOREBOARD + "?" + P_PAGE + "=" + (pageNumber + 1) + "&amp;"
+            + P_PAGE_SIZE + "=" + pageSize, "next");
+    }
+
+
+  /**
+   * Return the value of a positive whole-number request parameter, or
+   * 'defaultValue' if it's missing or not a positive whole number.
+   *
+   * @param request a servlet request
+   * @param name the name of the parameter
+   * @param defaultValue the value to use if the parameter is missing or bad
+   * @return the parameter's value
+   */
+  private int getIntParameter(HttpServletRequest request, String name, int defaultValue)
+    {
+    String value = scrubInput(request.getParameter(name));
+    if (value == null)
+      return defaultValue;
+    try
+      {
+      int intValue = Integer.parseInt(value);
+      return (intValue > 0) ? intValue : defaultValue;
+      }
+    catch (NumberFormatException exception)
+      {
+      return defaultValue;
+      }
+    }
+
   }
@@ -0,0 +1,327 @@
+package com.chipsandwaycool.servlet.utility;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This is the output stream beneath every page's writer.  It compresses a
+ * response with gzip or deflate, if the browser accepts one of them, as it
+ * streams out.  The first bytes are held back until there are more than a
+ * minimum number of them, since compressing a tiny response costs more than
+ * it saves; a response that ends before then goes out as it is.  The header
+ * announcing the encoding is only set once compression actually starts.
+ * Flushing sends everything written so far, compressing it first if need
+ * be, so a response written in chunks reaches the browser in chunks.
+ * <br/><br/>
+ * The minimum size and compression level are set for the whole site with
+ * 'Configure()'.  A level of zero turns compression off.  Bytes written to
+ * these streams and bytes sent to browsers are counted across the site.
+ */
+public class CompressingOutputStream extends OutputStream
+  {
+
+  public static final int DEFAULT_MIN_SIZE = 1024;
+  public static final int DEFAULT_LEVEL = 6;
+
+  private static int MinSize = DEFAULT_MIN_SIZE;
+  private static int Level = DEFAULT_LEVEL;
+  private static long BytesIn = 0;
+  private static long BytesOut = 0;
+
+  private HttpServletResponse   m_response = null;
+  private String                m_encoding = null;
+  private byte[]                m_buffer = null;
+  private int                   m_count = 0;
+  private OutputStream          m_output = null;
+  private long                  m_bytesIn = 0;
+  private long                  m_bytesOut = 0;
+  private boolean               m_closed = false;
+
+
+
+  /**
+   * Create a stream for the body of 'response', compressing it with the
+   * given encoding, if it's not null.
+   *
+   * @param response the servlet response
+   * @param encoding "gzip", "deflate", or null for no compression
+   */
+  public CompressingOutputStream(HttpServletResponse response, String encoding)
+    {
+    m_response = response;
+    m_encoding = encoding;
+    if (m_encoding != null)
+      m_buffer = new byte[MinSize];
+    }
+
+
+  /**
+   * Set the smallest response to be compressed, and the compression level
+   * (1 to 9, or 0 to turn compression off).  This affects streams created
+   * afterward.
+   *
+   * @param minSize the fewest bytes worth compressing
+   * @param level the compression level
+   */
+  public static void Configure(int minSize, int level)
+    {
+    if ((level < 0) || (level > 9))
+      throw new IllegalArgumentException("The compression level must be from 0 to 9, not " + level + ".");
+    MinSize = Math.max(0, minSize);
+    Level = level;
+    }
+
+
+  /**
+   * Choose the encoding to use for a browser sending the given
+   * "Accept-Encoding" header:  gzip if it's acceptable, then deflate, or
+   * null if neither is, or if compression is turned off.
+   *
+   * @param acceptEncoding the "Accept-Encoding" header, which may be null
+   * @return "gzip", "deflate" or null
+   */
+  public static String ChooseEncoding(String acceptEncoding)
+    {
+    if ((Level == 0) || (acceptEncoding == null))
+      return null;
+    boolean gzip = false;
+    boolean deflate = false;
+    boolean anyOther = false;
+    boolean gzipRefused = false;
+    boolean deflateRefused = false;
+    String[] codings = acceptEncoding.split(",");
+    for (int i = 0; i < codings.length; i++)
+      {
+      String coding = codings[i].trim().toLowerCase();
+      boolean refused = false;
+      int semicolon = coding.indexOf(';');
+      if (semicolon != -1)
+        {
+        String parameter = coding.substring(semicolon + 1).trim();
+        coding = coding.substring(0, semicolon).trim();
+        if (parameter.startsWith("q="))
+          try
+            {
+            refused = (Double.parseDouble(parameter.substring(2).trim()) <= 0);
+            }
+          catch (NumberFormatException ignored) { }
+        }
+      if (coding.equals("gzip") || coding.equals("x-gzip"))
+        {
+        gzip = !refused;
+        gzipRefused = refused;
+        }
+      else if (coding.equals("deflate"))
+        {
+        deflate = !refused;
+        deflateRefused = refused;
+        }
+      else if (coding.equals("*"))
+        anyOther = !refused;
+      }
+    if (gzip || (anyOther && !gzipRefused))
+      return "gzip";
+    else if (deflate || (anyOther && !deflateRefused))
+      return "deflate";
+    else
+      return null;
+    }
+
+
+  /**
+   * Return how many bytes have been written to these streams, before any
+   * compression.
+   *
+   * @return the number of bytes in
+   */
+  public static synchronized long GetBytesIn()
+    {
+    return BytesIn;
+    }
+
+
+  /**
+   * Return how many bytes these streams have sent to browsers.
+   *
+   * @return the number of bytes out
+   */
+  public static synchronized long GetBytesOut()
+    {
+    return BytesOut;
+    }
+
+
+  /**
+   * Add one stream's byte counts to the totals.
+   *
+   * @param bytesIn the bytes written to the stream
+   * @param bytesOut the bytes it sent
+   */
+  private static synchronized void AddCounts(long bytesIn, long bytesOut)
+    {
+    BytesIn += bytesIn;
+    BytesOut += bytesOut;
+    }
+
+
+  /**
+   * Write a single byte.
+   *
+   * @param b the byte to be written
+   */
+  public void write(int b) throws IOException
+    {
+    write(new byte[] { (byte)b }, 0, 1);
+    }
+
+
+  /**
+   * Write 'length' bytes from 'bytes', starting at 'offset'.  They are held
+   * back if the response isn't yet known to be big enough to compress.
+   *
+   * @param bytes the bytes to be written
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   */
+  public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+    if (m_closed)
+      throw new IOException("This response has already been completed.");
+    m_bytesIn += length;
+    if (m_output == null)
+      {
+      if ((m_buffer != null) && (m_count + length <= m_buffer.length))
+        {
+        System.arraycopy(bytes, offset, m_buffer, m_count, length);
+        m_count += length;
+        return;
+        }
+      start(m_encoding);
+      }
+    m_output.write(bytes, offset, length);
+    }
+
+
+  /**
+   * Send everything written so far on to the response.  Any bytes being held
+   * back start the response, compressed, since more are presumably coming,
+   * and the compressor is flushed, so the browser can decompress all of it.
+   */
+  public void flush() throws IOException
+    {
+    if (m_closed)
+      return;
+    if (m_output == null)
+      {
+      if (m_count == 0)
+        return;
+      start(m_encoding);
+      }
+    m_output.flush();
+    }
+
+
+  /**
+   * Complete the response, finishing the compressed data if it was being
+   * compressed, or sending any bytes held back as they are.
+   */
+  public void close() throws IOException
+    {
+    if (m_closed)
+      return;
+    m_closed = true;
+    try
+      {
+      if (m_output == null)
+        {
+        if (m_count == 0)
+          return;
+        start(null);
+        }
+      m_output.close();
+      }
+    finally
+      {
+      AddCounts(m_bytesIn, m_bytesOut);
+      }
+    }
+
+
+  /**
+   * Start sending the response, with the given encoding, and send any bytes
+   * held back.
+   *
+   * @param encoding "gzip", "deflate", or null for no compression
+   */
+  private void start(String encoding) throws IOException
+    {
+    OutputStream output = new CountingOutputStream(m_response.getOutputStream());
+    if ("gzip".equals(encoding))
+      {
+      m_response.setHeader("Content-Encoding", encoding);
+      output = new LeveledGZIPOutputStream(output, Level);
+      }
+    else if ("deflate".equals(encoding))
+      {
+      m_response.setHeader("Content-Encoding", encoding);
+      output = new DeflaterOutputStream(output, new Deflater(Level), 8192, true);
+      }
+    m_output = output;
+    if (m_count > 0)
+      m_output.write(m_buffer, 0, m_count);
+    m_buffer = null;
+    m_count = 0;
+    }
+
+
+
+  /**
+   * A GZIPOutputStream with a chosen compression level, whose 'flush()'
+   * flushes the compressor too.
+   */
+  private static class LeveledGZIPOutputStream extends GZIPOutputStream
+    {
+
+    LeveledGZIPOutputStream(OutputStream output, int level) throws IOException
+      {
+      super(output, 8192, true);
+      def.setLevel(level);
+      }
+
+    }
+
+
+
+  /**
+   * A stream counting the bytes that actually go to the response.
+   */
+  private class CountingOutputStream extends FilterOutputStream
+    {
+
+    CountingOutputStream(OutputStream output)
+      {
+      super(output);
+      }
+
+
+    public void write(int b) throws IOException
+      {
+      out.write(b);
+      m_bytesOut++;
+      }
+
+
+    public void write(byte[] bytes, int offset, int length) throws IOException
+      {
+      out.write(bytes, offset, length);
+      m_bytesOut += length;
+      }
+
+    }
+
+  }
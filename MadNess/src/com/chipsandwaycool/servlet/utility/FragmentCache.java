@@ -0,0 +1,131 @@
+package com.chipsandwaycool.servlet.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This is a cache of rendered page fragments (strings of HTML), each stored
+ * under a key describing the variation it was rendered for, and all tied to
+ * one version number of the data they were rendered from.  Once a newer
+ * version is seen, every fragment is dropped.  The number of fragments is
+ * bounded, least recently used going first, since the keys may be built
+ * from request parameters.
+ * <br/><br/>
+ * The version should be read before reading the data a fragment is made
+ * from.  Then a fragment can only be newer than its version says, so at
+ * worst it is rendered again needlessly, never served stale.
+ */
+public class FragmentCache extends Object
+  {
+
+  private int         m_maxEntries = 0;
+  private long        m_version = Long.MIN_VALUE;
+  private Map         m_fragments = null;
+  private long        m_hitCount = 0;
+  private long        m_missCount = 0;
+
+
+
+  /**
+   * Create a cache holding at most 'maxEntries' fragments.
+   *
+   * @param maxEntries the most fragments to keep
+   */
+  public FragmentCache(int maxEntries)
+    {
+    m_maxEntries = maxEntries;
+    m_fragments = new LinkedHashMap(16, 0.75f, true)
+      {
+      protected boolean removeEldestEntry(Map.Entry eldest)
+        {
+        return size() > m_maxEntries;
+        }
+      };
+    }
+
+
+  /**
+   * Return the fragment stored under 'key' for data version 'version', or
+   * null if there isn't one.
+   *
+   * @param key the variation of the fragment wanted
+   * @param version the current version of the data
+   * @return the cached fragment, or null
+   */
+  public synchronized String get(String key, long version)
+    {
+    advanceTo(version);
+    String fragment = (version == m_version) ? (String)(m_fragments.get(key)) : null;
+    if (fragment != null)
+      m_hitCount++;
+    else
+      m_missCount++;
+    return fragment;
+    }
+
+
+  /**
+   * Store a fragment under 'key', rendered from data version 'version'.
+   * It is ignored if a newer version has been seen meanwhile.
+   *
+   * @param key the variation of the fragment
+   * @param version the version of the data it was rendered from
+   * @param fragment the rendered fragment
+   */
+  public synchronized void put(String key, long version, String fragment)
+    {
+    advanceTo(version);
+    if (version == m_version)
+      m_fragments.put(key, fragment);
+    }
+
+
+  /**
+   * Drop every fragment if 'version' is newer than the one I hold.
+   *
+   * @param version a data version
+   */
+  private void advanceTo(long version)
+    {
+    if (version > m_version)
+      {
+      m_fragments.clear();
+      m_version = version;
+      }
+    }
+
+
+  /**
+   * Return how many times a fragment was found.
+   *
+   * @return the hit count
+   */
+  public synchronized long getHitCount()
+    {
+    return m_hitCount;
+    }
+
+
+  /**
+   * Return how many times a fragment was not found.
+   *
+   * @return the miss count
+   */
+  public synchronized long getMissCount()
+    {
+    return m_missCount;
+    }
+
+
+  /**
+   * Return a short summary of my state, for administrators.
+   *
+   * @return a description of this cache
+   */
+  public synchronized String toString()
+    {
+    return m_fragments.size() + " fragments at version " + m_version + ", "
+          + m_hitCount + " hits, " + m_missCount + " misses";
+    }
+
+  }
@@ -20,11 +20,17 @@ import java.util.List;
  * This class simplifies the processes of sending emails via the JavaMail API.
  * Construct one of these with the host name or IP of your SMTP server, and
  * then call 'sendEmail()' to fire one off!
+ * <br/><br/>
+ * 'sendEmail()' opens a new connection to the server for each email.  To
+ * send many, create the messages with 'createMessage()' and send them
+ * through one connected Transport from 'getTransport()', as the
+ * MailDispatcher does.
  */
 public class Emailer extends Object
   {
 
   private static String SMTPHost = null;
+  private static int SMTPPort = -1;
   private static String DefaultSender = null;
   
   private Session     m_session = null;
@@ -43,6 +49,17 @@ public class Emailer extends Object
     }
 
 
+  /**
+   * Set the port of the SMTP server, if it isn't the standard one.
+   *
+   * @param port the SMTP server's port, or -1 for the default
+   */
+  public static void SetSMTPPort(int port)
+    {
+    SMTPPort = port;
+    }
+
+
   /**
    * Set an optional default sender email address, to avoid passing in that
    * value for every email sent.
@@ -100,42 +117,9 @@ public class Emailer extends Object
   public boolean sendEmail(String sender, String recipient, String subject,
         String body, List attachmentFileNames)
     {
-    if (sender == null)
-      if ((sender = DefaultSender) == null)
-        throw new NullPointerException("No sender email address was supplied.");
-    if (m_session == null)
-      {
-      Properties props = new Properties();
-      props.put("mail.smtp.host", SMTPHost);
-      props.put("mail.smtp.localhost", SMTPHost);
-      m_session = Session.getDefaultInstance(props);
-      }
     try
       {
-      MimeMessage message = new MimeMessage(m_session);
-      message.setFrom(new InternetAddress(sender));
-      message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
-      message.setSubject(subject);
-      if ((attachmentFileNames == null) || (attachmentFileNames.size() == 0))
-        message.setText(body);
-      else
-        {
-        Multipart multipart = new MimeMultipart();
-        BodyPart part = new MimeBodyPart();
-        part.setText(body);
-        multipart.addBodyPart(part);
-        String fileName = null;
-        for (Iterator i = attachmentFileNames.iterator(); i.hasNext(); )
-          {
-          fileName = (String)(i.next());
-          part = new MimeBodyPart();
-          part.setDataHandler(new DataHandler(new FileDataSource(fileName)));
-          part.setFileName(fileName);
-          multipart.addBodyPart(part);
-          }
-        message.setContent(multipart);
-        }
-      Transport.send(message);
+      Transport.send(createMessage(sender, recipient, subject, body, attachmentFileNames));
       return true;
       }
     catch (MessagingException exception)
@@ -147,4 +131,81 @@ public class Emailer extends Object
     return false;
     }
 
+
+  /**
+   * Create an email for the given values, ready to be sent.  If
+   * 'attachmentFileNames' contains any file names, add the specified files
+   * as email attachments.
+   *
+   * @param sender the email address of the sender, or null for the default
+   * @param recipient the recipient email address
+   * @param subject the email's subject
+   * @param body the body text of the email
+   * @param attachmentFileNames an optional list of attachments files
+   * @return the message
+   */
+  public MimeMessage createMessage(String sender, String recipient, String subject,
+        String body, List attachmentFileNames) throws MessagingException
+    {
+    if (sender == null)
+      if ((sender = DefaultSender) == null)
+        throw new NullPointerException("No sender email address was supplied.");
+    MimeMessage message = new MimeMessage(getSession());
+    message.setFrom(new InternetAddress(sender));
+    message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+    message.setSubject(subject);
+    if ((attachmentFileNames == null) || (attachmentFileNames.size() == 0))
+      message.setText(body);
+    else
+      {
+      Multipart multipart = new MimeMultipart();
+      BodyPart part = new MimeBodyPart();
+      part.setText(body);
+      multipart.addBodyPart(part);
+      String fileName = null;
+      for (Iterator i = attachmentFileNames.iterator(); i.hasNext(); )
+        {
+        fileName = (String)(i.next());
+        part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(new FileDataSource(fileName)));
+        part.setFileName(fileName);
+        multipart.addBodyPart(part);
+        }
+      message.setContent(multipart);
+      }
+    return message;
+    }
+
+
+  /**
+   * Return a new, unconnected Transport to the SMTP server.  Connect it,
+   * send any number of messages with 'sendMessage()', then close it.
+   *
+   * @return a Transport for SMTP
+   */
+  public Transport getTransport() throws MessagingException
+    {
+    return getSession().getTransport("smtp");
+    }
+
+
+  /**
+   * Return my mail session, creating it on first call.
+   *
+   * @return the session
+   */
+  private Session getSession()
+    {
+    if (m_session == null)
+      {
+      Properties props = new Properties();
+      props.put("mail.smtp.host", SMTPHost);
+      props.put("mail.smtp.localhost", SMTPHost);
+      if (SMTPPort != -1)
+        props.put("mail.smtp.port", Integer.toString(SMTPPort));
+      m_session = Session.getInstance(props);
+      }
+    return m_session;
+    }
+
   }
@@ -0,0 +1,401 @@
+package com.chipsandwaycool.utility;
+
+import com.chipsandwaycool.entity.mail.MailJob;
+import com.chipsandwaycool.entity.mail.OutboxManager;
+import com.chipsandwaycool.entity.mail.OutboxMessage;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.ParseException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This object sends bulk emails in the background, so an admin page can
+ * hand off an email to every player and return at once.  Submitted emails
+ * go into the outbox in the data store (see OutboxManager), one message per
+ * recipient, and the dispatcher drains it:  a pump thread reads the messages
+ * that are due and hands them, no faster than a configured rate, to a fixed
+ * number of worker threads.  The rate keeps a large pool from tripping the
+ * relay's limits.  Each worker keeps its own connection to the SMTP server
+ * open between emails, rather than connecting for every one, and closes it
+ * once it has been idle for a while.
+ * <br/><br/>
+ * If an email fails on a connection that was being reused, the server may
+ * simply have dropped it, so the worker reconnects and tries once more.
+ * Otherwise a failed email is put back in the outbox to be retried later,
+ * after a configured delay that doubles with each failure, until it has
+ * been tried 'MAX_ATTEMPTS' times.  An email the server refuses outright,
+ * for a bad address, isn't retried.
+ */
+public class MailDispatcher extends Object
+  {
+
+  public static final int DEFAULT_WORKER_COUNT = 2;
+  public static final int DEFAULT_RATE = 5;
+  public static final long DEFAULT_RETRY_DELAY = 60000;
+  public static final int MAX_ATTEMPTS = 5;
+
+  private static final long IDLE_TIMEOUT = 30000;
+  private static final long POLL_INTERVAL = 5000;
+  private static final int BATCH_SIZE = 100;
+
+  static MailDispatcher Instance = null;
+  private static int WorkerCount = DEFAULT_WORKER_COUNT;
+  private static int Rate = DEFAULT_RATE;
+  private static long RetryDelay = DEFAULT_RETRY_DELAY;
+
+  private BlockingQueue       m_queue = null;
+  private Set                 m_inFlightIDs = Collections.synchronizedSet(new HashSet());
+  private Object              m_wakeUp = new Object();
+  private boolean             m_workSubmitted = false;
+  private Thread              m_pump = null;
+  private Worker[]            m_workers = null;
+  private volatile boolean    m_shutDown = false;
+
+
+
+  /**
+   * Create a dispatcher and start its threads.
+   *
+   * @param workerCount the number of worker threads
+   * @param rate the most emails to send per second
+   */
+  private MailDispatcher(int workerCount, int rate)
+    {
+    m_queue = new ArrayBlockingQueue(workerCount);
+    m_workers = new Worker[workerCount];
+    for (int i = 0; i < m_workers.length; i++)
+      {
+      m_workers[i] = new Worker(i + 1);
+      m_workers[i].start();
+      }
+    m_pump = new Pump(rate);
+    m_pump.start();
+    }
+
+
+  /**
+   * Return the sole MailDispatcher instance, creating it and starting its
+   * threads on first call.  Once started, it sends whatever is waiting in
+   * the outbox, including emails left there when the application stopped.
+   *
+   * @return the MailDispatcher singleton
+   */
+  static public synchronized MailDispatcher GetInstance()
+    {
+    if (Instance == null)
+      Instance = new MailDispatcher(WorkerCount, Rate);
+    return Instance;
+    }
+
+
+  /**
+   * Set the number of worker threads, each with its own connection to the
+   * SMTP server, the most emails to send per second, across them all, and
+   * the time to wait before first retrying a failed email.  These must be
+   * set before the dispatcher is first used.
+   *
+   * @param workerCount the number of workers, at least one
+   * @param rate the most emails per second, at least one
+   * @param retryDelay the delay before the first retry, in milliseconds
+   */
+  public static void Configure(int workerCount, int rate, long retryDelay)
+    {
+    if (workerCount < 1)
+      throw new IllegalArgumentException("There must be at least one mail worker, not " + workerCount + ".");
+    if (rate < 1)
+      throw new IllegalArgumentException("The mail rate must be at least one email per second, not " + rate + ".");
+    WorkerCount = workerCount;
+    Rate = rate;
+    RetryDelay = Math.max(0, retryDelay);
+    }
+
+
+  /**
+   * Stop the dispatcher's threads, if it was ever started.  Any emails
+   * still waiting stay in the outbox.
+   */
+  static public synchronized void ShutDown()
+    {
+    if (Instance == null)
+      return;
+    Instance.m_shutDown = true;
+    Instance.m_pump.interrupt();
+    for (int i = 0; i < Instance.m_workers.length; i++)
+      Instance.m_workers[i].interrupt();
+    Instance = null;
+    }
+
+
+  /**
+   * Put an email with the given subject and body to each of the recipients
+   * in the outbox, returning its job at once.  An email already in the
+   * outbox isn't sent again to the same recipients.
+   *
+   * @param subject the emails' subject
+   * @param body the body text of the emails
+   * @param recipients the recipients' email addresses, as Strings
+   * @return the email's job
+   */
+  public MailJob submit(String subject, String body, List recipients)
+    {
+    MailJob job = OutboxManager.GetInstance().enqueue(subject, body, recipients);
+    synchronized (m_wakeUp)
+      {
+      m_workSubmitted = true;
+      m_wakeUp.notifyAll();
+      }
+    return job;
+    }
+
+
+  /**
+   * Return the job with the given ID, or null if there isn't one.
+   *
+   * @param jobID a job's ID
+   * @return the job, or null
+   */
+  public MailJob getJob(int jobID)
+    {
+    return OutboxManager.GetInstance().selectJob(jobID);
+    }
+
+
+  /**
+   * Return whether a failure to send an email is permanent, so that trying
+   * again would only waste a send:  the recipient's address is malformed,
+   * or the server refused it, or the server gave a permanent (5xx) reply to
+   * any command.  Anything else, such as a dropped connection or a 4xx
+   * reply, may well work later.
+   *
+   * @param exception the exception thrown by the attempt
+   * @return whether the email can never be sent
+   */
+  private static boolean GetIsPermanent(MessagingException exception)
+    {
+    for (Exception cause = exception; cause != null; )
+      {
+      if (cause instanceof ParseException)
+        return true;
+      if ((cause instanceof SendFailedException)
+            && (((SendFailedException)cause).getInvalidAddresses() != null)
+            && (((SendFailedException)cause).getInvalidAddresses().length > 0))
+        return true;
+      String reply = cause.getMessage();
+      if ((reply != null) && ((reply = reply.trim()).length() >= 3) && (reply.charAt(0) == '5')
+            && Character.isDigit(reply.charAt(1)) && Character.isDigit(reply.charAt(2))
+            && ((reply.length() == 3) || (reply.charAt(3) == ' ') || (reply.charAt(3) == '-')))
+        return true;
+      cause = (cause instanceof MessagingException) ? ((MessagingException)cause).getNextException() : null;
+      }
+    return false;
+    }
+
+
+
+  /**
+   * The thread reading due messages from the outbox and handing them to the
+   * workers, spaced out to keep to the rate.
+   */
+  private class Pump extends Thread
+    {
+
+    private long    m_interval = 0;
+
+
+    Pump(int rate)
+      {
+      super("MailDispatcher-pump");
+      setDaemon(true);
+      m_interval = 1000000000L / rate;
+      }
+
+
+    public void run()
+      {
+      long nextSendTime = System.nanoTime();
+      try
+        {
+        while (!m_shutDown)
+          {
+          List messages = null;
+          try
+            {
+            Set inFlightIDs = null;
+            synchronized (m_inFlightIDs)
+              {
+              inFlightIDs = new HashSet(m_inFlightIDs);
+              }
+            messages = OutboxManager.GetInstance().selectDue(System.currentTimeMillis(),
+                  BATCH_SIZE, inFlightIDs);
+            }
+          catch (RuntimeException exception)
+            {
+            exception.printStackTrace();
+            }
+          if ((messages == null) || (messages.size() == 0))
+            {
+            waitForWork();
+            continue;
+            }
+          for (int i = 0; i < messages.size(); i++)
+            {
+            long delay = nextSendTime - System.nanoTime();
+            if (delay > 0)
+              Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+            nextSendTime = Math.max(nextSendTime, System.nanoTime()) + m_interval;
+            OutboxMessage message = (OutboxMessage)(messages.get(i));
+            m_inFlightIDs.add(new Integer(message.getID()));
+            m_queue.put(message);
+            }
+          }
+        }
+      catch (InterruptedException ignored) { }
+      }
+
+
+    /**
+     * Wait until an email is submitted, or it's time to look in the outbox
+     * again for emails due to be retried.
+     */
+    private void waitForWork() throws InterruptedException
+      {
+      synchronized (m_wakeUp)
+        {
+        if (!m_workSubmitted)
+          m_wakeUp.wait(POLL_INTERVAL);
+        m_workSubmitted = false;
+        }
+      }
+
+    }
+
+
+
+  /**
+   * A worker thread, sending one message after another through its own
+   * connection to the SMTP server, and recording how each one went.
+   */
+  private class Worker extends Thread
+    {
+
+    private Emailer     m_emailer = new Emailer();
+    private Transport   m_transport = null;
+
+
+    Worker(int number)
+      {
+      super("MailDispatcher-" + number);
+      setDaemon(true);
+      }
+
+
+    public void run()
+      {
+      try
+        {
+        while (!m_shutDown)
+          {
+          OutboxMessage message = (OutboxMessage)(m_queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS));
+          if (message == null)
+            disconnect();
+          else
+            try
+              {
+              deliver(message);
+              }
+            catch (RuntimeException exception)
+              {
+              exception.printStackTrace();
+              }
+            finally
+              {
+              m_inFlightIDs.remove(new Integer(message.getID()));
+              }
+          }
+        }
+      catch (InterruptedException ignored) { }
+      finally
+        {
+        disconnect();
+        }
+      }
+
+
+    /**
+     * Send one message, and record in the outbox whether it was sent, or
+     * should be retried, or has failed for good.
+     */
+    private void deliver(OutboxMessage message)
+      {
+      OutboxManager outboxMan = OutboxManager.GetInstance();
+      try
+        {
+        MimeMessage mimeMessage = m_emailer.createMessage(null, message.getRecipient(),
+              message.getSubject(), message.getBody(), null);
+        boolean reused = (m_transport != null) && m_transport.isConnected();
+        try
+          {
+          connect();
+          m_transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+          }
+        catch (MessagingException exception)
+          {
+          if (!reused || (exception instanceof SendFailedException))
+            throw exception;
+          disconnect();
+          connect();
+          m_transport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+          }
+        outboxMan.recordSent(message);
+        }
+      catch (MessagingException exception)
+        {
+        if ((m_transport != null) && !m_transport.isConnected())
+          disconnect();
+        boolean refused = GetIsPermanent(exception);
+        int attempts = message.getAttempts() + 1;
+        System.out.println("Attempt " + attempts + " to send " + message + " failed:  " + exception);
+        if (refused || (attempts >= MAX_ATTEMPTS))
+          outboxMan.recordFailed(message, exception.toString());
+        else
+          outboxMan.recordRetry(message, System.currentTimeMillis() + (RetryDelay << (attempts - 1)),
+                exception.toString());
+        }
+      }
+
+
+    /**
+     * Connect to the SMTP server, unless I already am.
+     */
+    private void connect() throws MessagingException
+      {
+      if ((m_transport != null) && m_transport.isConnected())
+        return;
+      m_transport = m_emailer.getTransport();
+      m_transport.connect();
+      }
+
+
+    /**
+     * Close my connection to the SMTP server, if I have one.
+     */
+    private void disconnect()
+      {
+      if (m_transport == null)
+        return;
+      try { m_transport.close(); }
+      catch (MessagingException ignored) { }
+      m_transport = null;
+      }
+
+    }
+
+  }
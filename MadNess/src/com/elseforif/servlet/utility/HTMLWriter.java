@@ -6,6 +6,8 @@ import com.elseforif.utility.Web1;
 import com.elseforif.utility.String1;
 import java.io.Writer;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.List;
 import java.util.Iterator;
@@ -39,6 +41,9 @@ public class HTMLWriter extends Object implements HTMLConstants
   protected String          m_contextPrefix = "";
   protected boolean         m_xhtml = true;
   protected FileCache       m_cache = null;
+  protected OutputStream    m_byteOutput = null;
+  protected Writer          m_byteWriter = null;
+  protected Charset         m_byteCharset = null;
   protected String          m_preHeadCode = null;
   protected String          m_transpixelImageURL = "";
 
@@ -85,6 +90,22 @@ public class HTMLWriter extends Object implements HTMLConstants
     }
 
 
+  /**
+   * Give me the byte stream underneath my Writer, and the charset the Writer
+   * encodes in, so that included files can be written to it as bytes,
+   * encoded once, rather than through the Writer on every page.
+   *
+   * @param output the stream my Writer writes to
+   * @param charsetName the name of the charset my Writer encodes in
+   */
+  public void setByteOutput(OutputStream output, String charsetName)
+    {
+    m_byteOutput = output;
+    m_byteWriter = m_output;
+    m_byteCharset = Charset.forName(charsetName);
+    }
+
+
   /**
    * Flush my Writer object's output.
    */
@@ -613,18 +634,29 @@ public class HTMLWriter extends Object implements HTMLConstants
 
 
   /**
-   * Write the contents of the specified file, assumed ASCII.  If the file
-   * cannot be read, write an error message.
+   * Write the text of the specified file.  If the file cannot be read, write
+   * an error message.  Files are read through the shared FileCache, unless
+   * 'm_cache' has been given another, so they're only read again once they
+   * change.  If I've been given a byte stream (see 'setByteOutput()'), and
+   * I'm still writing to the Writer on top of it, the file's pre-encoded
+   * bytes are written to the stream directly, after flushing the Writer.
    *
    * @param path the path to the file to be output
    */
   public void printFile(String path) throws IOException
     {
     if (m_cache == null)
-      m_cache = new FileCache();
+      m_cache = FileCache.GetShared();
     try
       {
-      m_output.write((String)(m_cache.reparseFile(path)));
+      if ((m_byteOutput != null) && (m_output == m_byteWriter))
+        {
+        byte[] bytes = m_cache.getBytes(path, m_byteCharset);
+        m_output.flush();
+        m_byteOutput.write(bytes);
+        }
+      else
+        m_output.write((String)(m_cache.reparseFile(path)));
       }
     catch (Exception exception)
       {
@@ -1,9 +1,24 @@
 package com.elseforif.utility;
 
-import java.io.StringWriter;
-import java.io.FileReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This object reads files from a file system and caches them in some form.
@@ -11,45 +26,208 @@ import java.io.IOException;
  * it is invoked, the timestamp of the file on disk is compared with that
  * of the cached version here, and iff they differ the file is reread.
  * <br><br>
- * This base implementation assumes all files are ASCII and reads them into
- * one string each.  Thus, the return from 'reparseFile()' can be cast to
- * a String.  Subclasses, however, may override 'readFile()' to return some
- * other object type.
+ * This base implementation reads files as text in one charset (UTF-8, unless
+ * another is given) into one string each.  Thus, the return from
+ * 'reparseFile()' can be cast to a String.  Subclasses, however, may
+ * override 'readFile()' to return some other object type.  Files are read
+ * whole, through a FileChannel, or memory-mapped if they are at least the
+ * map threshold in size.  'getBytes()' returns a file's text already
+ * encoded for output in a given charset, encoded once per change, so it
+ * can be written straight to a byte stream.
  * <br><br>
  * Uh, why the heck are these methods returning Objects?  Maybe so that subclasses
  * can provide a smart interface, returning Strings for text files and DOMs for
  * XML documents.
+ * <br><br>
+ * A FileCache is thread-safe, so one instance can serve every request:
+ * 'GetShared()' returns a process-wide instance of this base class, which
+ * HTMLWriters use for included files, so each file is read once per change
+ * rather than once per page.  Entries are kept in a concurrent hash map by
+ * path, and a file that is still fresh is returned without taking any lock.
+ * Reading a file locks only its own entry, so if many threads miss on the
+ * same file at once, one reads it and the rest wait for its contents, while
+ * other files are read in parallel.  Every entry counts its hits, misses and
+ * reloads; see 'getStatistics()'.
+ * <br><br>
+ * Checking a file's timestamp costs a couple of system calls per access.
+ * Given a check interval ('setCheckInterval()'), a file is only checked
+ * again once that long has passed since it last was, and in between its
+ * cached copy is returned as is.  Or, after 'startWatching()', the
+ * directories of cached files are watched by a WatchService, and a file is
+ * only checked again after something in its directory has changed, so a
+ * fresh file costs no file-system calls at all.  (Some platforms' watch
+ * services poll, and only notice changes after several seconds.)
+ * <br><br>
+ * The cache is bounded both in its number of entries and in the memory its
+ * objects are estimated to take (see 'estimateSize()').  Once a read takes
+ * it over either limit, the least recently used entries are evicted until
+ * it's back under nine tenths of both, so the sorting this takes is spread
+ * across many evictions while hits never take a lock.  A file bigger than
+ * the byte limit is refused, rather than read onto the heap at all, and an
+ * object estimated to be bigger than it is returned without being kept.
+ * The cache as a whole counts its hits, misses, reloads and evictions too.
  *
  * @author Jason Van Cleve
  */
 public class FileCache extends Object
   {
 
-  protected static final int PATH = 0;
-  protected static final int DATE = 1;
-  protected static final int OBJECT = 2;
+  public static final String DEFAULT_CHARSET = "UTF-8";
+  public static final long DEFAULT_MAP_THRESHOLD = 262144;
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+  public static final long DEFAULT_MAX_BYTES = 67108864;
+
+  private static final long ENTRY_OVERHEAD = 128;
+
+  private static FileCache Shared = null;
+
+  private ConcurrentMap       m_entries = new ConcurrentHashMap();
+  private Charset             m_charset = null;
+  private volatile long       m_mapThreshold = DEFAULT_MAP_THRESHOLD;
+  private volatile long       m_checkInterval = 0;
+  private volatile Watcher    m_watcher = null;
+  private volatile int        m_maxEntries = DEFAULT_MAX_ENTRIES;
+  private volatile long       m_maxBytes = DEFAULT_MAX_BYTES;
+  private Object              m_evictionLock = new Object();
+  private AtomicLong          m_residentBytes = new AtomicLong();
+  private AtomicLong          m_hitCount = new AtomicLong();
+  private AtomicLong          m_missCount = new AtomicLong();
+  private AtomicLong          m_reloadCount = new AtomicLong();
+  private AtomicLong          m_evictionCount = new AtomicLong();
+
+
+
+  /**
+   * Construct a cache reading files in the default charset, UTF-8.
+   */
+  public FileCache()
+    {
+    this(Charset.forName(DEFAULT_CHARSET));
+    }
+
+
+  /**
+   * Construct a cache reading files in the given charset.
+   *
+   * @param charset the charset of the files' text
+   */
+  public FileCache(Charset charset)
+    {
+    m_charset = charset;
+    }
+
+
+  /**
+   * Return the process-wide FileCache, creating it on first call.
+   *
+   * @return the shared FileCache
+   */
+  public static synchronized FileCache GetShared()
+    {
+    if (Shared == null)
+      Shared = new FileCache();
+    return Shared;
+    }
+
+
+  /**
+   * Return the charset I read files' text in.
+   *
+   * @return my charset
+   */
+  public Charset getCharset()
+    {
+    return m_charset;
+    }
+
+
+  /**
+   * Set the size, in bytes, at and above which files are memory-mapped to
+   * be read, rather than read through a channel.
+   *
+   * @param mapThreshold the map threshold, in bytes
+   */
+  public void setMapThreshold(long mapThreshold)
+    {
+    m_mapThreshold = mapThreshold;
+    }
+
+
+  /**
+   * Set the most entries I may hold, and the most memory, in bytes, their
+   * objects may be estimated to take, evicting entries at once if I'm over
+   * either.
+   *
+   * @param maxEntries the most entries, at least one
+   * @param maxBytes the most bytes, at least one
+   */
+  public void setCapacity(int maxEntries, long maxBytes)
+    {
+    if ((maxEntries < 1) || (maxBytes < 1))
+      throw new IllegalArgumentException("A file cache's capacity must be positive, not " + maxEntries + " entries and " + maxBytes + " bytes.");
+    m_maxEntries = maxEntries;
+    m_maxBytes = maxBytes;
+    evictIfNeeded();
+    }
+
 
-  protected MultiMap    m_files = new MultiMap(3, 12);
+  /**
+   * Set how long, in milliseconds, to trust a file's cached copy after its
+   * timestamp was last checked.  Zero, the default, checks it every time.
+   *
+   * @param checkInterval the check interval, in milliseconds
+   */
+  public void setCheckInterval(long checkInterval)
+    {
+    m_checkInterval = Math.max(0, checkInterval);
+    }
 
 
+  /**
+   * Start watching the directories of the files I cache, trusting each file's
+   * cached copy until something changes in its directory.  This overrides
+   * the check interval for the files it can watch.
+   */
+  public synchronized void startWatching() throws IOException
+    {
+    if (m_watcher != null)
+      return;
+    m_watcher = new Watcher(FileSystems.getDefault().newWatchService());
+    m_watcher.start();
+    }
+
+
+  /**
+   * Stop watching directories, and go back to checking files' timestamps.
+   */
+  public synchronized void stopWatching()
+    {
+    if (m_watcher == null)
+      return;
+    m_watcher.close();
+    m_watcher = null;
+    invalidate(null, null);
+    }
+
 
   /**
    * Return whether the specified XML file is newer on disk than my cached copy
-   * or I have not cached the file yet.
+   * or I have not cached the file yet.  Like a read, this trusts a watched
+   * or recently checked entry without looking at the file.
    *
    * @param filePath the file path of the XML document
    * @return whether the file has been changed since 'date'
    */
   public boolean getIsNew(String filePath) throws IOException
     {
+    Entry entry = (Entry)(m_entries.get(filePath));
+    Contents contents = (entry != null) ? entry.m_contents : null;
+    if ((contents != null) && entry.getIsTrusted())
+      return false;
     File file = new File(filePath);
     if (!file.exists())
       throw new IOException("The file '" + filePath + "' was not found, Bozo.");
-    int index = m_files.indexOf(PATH, filePath);
-    if (index == -1)
-      return true;
-    Long date = (Long)(m_files.get(DATE, index));
-    return ((date == null) || (date.longValue() != file.lastModified()));
+    return ((contents == null) || (contents.m_date != file.lastModified()));
     }
 
 
@@ -63,15 +241,8 @@ public class FileCache extends Object
    */
   public boolean getIsNew(String filePath, Long date) throws Exception
     {
-    reparseFile(filePath);
-    int index = m_files.indexOf(PATH, filePath);
-//    Long lastDate = (Long)(m_files.get(index, DATE));  // dont know how this
-    Long lastDate = (Long)(m_files.get(DATE, index));         // got like that
-    if ((lastDate != null)
-          && ((date == null) || (lastDate.longValue() > date.longValue())))
-      return true;
-    else
-      return false;
+    long lastDate = getFileDate(filePath).longValue();
+    return ((date == null) || (lastDate > date.longValue()));
     }
 
 
@@ -83,9 +254,7 @@ public class FileCache extends Object
    */
   public Long getFileDate(String filePath) throws Exception
     {
-    reparseFile(filePath);
-    int index = m_files.indexOf(PATH, filePath);
-    return (Long)(m_files.get(index, DATE));
+    return new Long(getContents(filePath).m_date);
     }
 
 
@@ -97,46 +266,685 @@ public class FileCache extends Object
    */
   public Object reparseFile(String filePath) throws Exception
     {
+    return getContents(filePath).m_object;
+    }
+
+
+  /**
+   * Check the specified file against my cache, like 'reparseFile()', and
+   * return its text encoded in 'charset'.  The encoded bytes are kept until
+   * the file changes, so they must not be modified.  The file's object must
+   * be a String.
+   *
+   * @param filePath the file path to the file
+   * @param charset the charset to encode the text in
+   * @return the file's text as bytes
+   */
+  public byte[] getBytes(String filePath, Charset charset) throws Exception
+    {
+    Contents contents = getContents(filePath);
+    Encoding encoding = contents.m_encoding;
+    if ((encoding != null) && encoding.m_charset.equals(charset))
+      return encoding.m_bytes;
+    return contents.m_entry.encode(contents, charset);
+    }
+
+
+  /**
+   * Return a copy of the hit, miss and reload counts for the specified file,
+   * or null if I have never been asked for it.
+   *
+   * @param filePath the file path to the file
+   * @return the file's counts, or null
+   */
+  public Statistics getStatistics(String filePath)
+    {
+    Entry entry = (Entry)(m_entries.get(filePath));
+    if (entry == null)
+      return null;
+    return new Statistics(entry.m_hitCount.get(), entry.m_missCount.get(),
+          entry.m_reloadCount.get());
+    }
+
+
+  /**
+   * Return how many entries I hold.
+   *
+   * @return the number of entries
+   */
+  public int getEntryCount()
+    {
+    return m_entries.size();
+    }
+
+
+  /**
+   * Return the estimated memory, in bytes, taken by the objects I hold.
+   *
+   * @return the resident bytes
+   */
+  public long getResidentBytes()
+    {
+    return m_residentBytes.get();
+    }
+
+
+  /**
+   * Return how many times a file was answered from the cache.
+   *
+   * @return the hit count
+   */
+  public long getHitCount()
+    {
+    return m_hitCount.get();
+    }
+
+
+  /**
+   * Return how many times a file was read because it wasn't cached.
+   *
+   * @return the miss count
+   */
+  public long getMissCount()
+    {
+    return m_missCount.get();
+    }
+
+
+  /**
+   * Return how many times a file was reread because it had changed.
+   *
+   * @return the reload count
+   */
+  public long getReloadCount()
+    {
+    return m_reloadCount.get();
+    }
+
+
+  /**
+   * Return how many entries have been evicted to keep me within capacity.
+   *
+   * @return the eviction count
+   */
+  public long getEvictionCount()
+    {
+    return m_evictionCount.get();
+    }
+
+
+  /**
+   * Return the fraction of requests for files answered from the cache, or
+   * zero if there haven't been any.
+   *
+   * @return the hit ratio
+   */
+  public double getHitRatio()
+    {
+    long hitCount = m_hitCount.get();
+    long requestCount = hitCount + m_missCount.get() + m_reloadCount.get();
+    return (requestCount == 0) ? 0 : (double)hitCount / requestCount;
+    }
+
+
+  /**
+   * Return a short summary of my state, for administrators.
+   *
+   * @return a description of this cache
+   */
+  public String toString()
+    {
+    return getEntryCount() + " files, " + getResidentBytes() + " bytes, "
+          + getHitCount() + " hits, " + getMissCount() + " misses, " + getReloadCount()
+          + " reloads, " + getEvictionCount() + " evictions";
+    }
+
+
+  /**
+   * Return the up-to-date contents of the specified file, reading it if I
+   * haven't yet or it has changed since I did.
+   *
+   * @param filePath the file path to the file
+   * @return the file's contents and timestamp
+   */
+  private Contents getContents(String filePath) throws Exception
+    {
+    Entry entry = (Entry)(m_entries.get(filePath));
+    if (entry != null)
+      {
+      Contents contents = entry.m_contents;
+      if ((contents != null) && entry.getIsTrusted())
+        {
+        entry.recordHit();
+        return contents;
+        }
+      }
     File file = new File(filePath);
     if (!file.exists())
       throw new IOException("The file '" + filePath + "' was not found, Bozo.");
-    int index = m_files.indexOf(PATH, filePath);
-    if (index != -1)
+    if (entry == null)
+      {
+      Entry newEntry = new Entry(filePath);
+      entry = (Entry)(m_entries.putIfAbsent(filePath, newEntry));
+      if (entry == null)
+        entry = newEntry;
+      }
+    return entry.getContents(file);
+    }
+
+
+  /**
+   * If I'm over capacity, evict the least recently used entries until I'm
+   * under nine tenths of it, in both entries and bytes.  Only one thread
+   * evicts at a time.
+   */
+  private void evictIfNeeded()
+    {
+    if ((m_entries.size() <= m_maxEntries) && (m_residentBytes.get() <= m_maxBytes))
+      return;
+    synchronized (m_evictionLock)
+      {
+      int maxEntries = m_maxEntries;
+      long maxBytes = m_maxBytes;
+      int entryCount = m_entries.size();
+      if ((entryCount <= maxEntries) && (m_residentBytes.get() <= maxBytes))
+        return;
+      Entry[] entries = (Entry[])(m_entries.values().toArray(new Entry[0]));
+      for (int i = 0; i < entries.length; i++)
+        entries[i].m_sortTime = entries[i].m_lastAccess;
+      Arrays.sort(entries, new Comparator()
+        {
+        public int compare(Object entry1, Object entry2)
+          {
+          long time1 = ((Entry)entry1).m_sortTime;
+          long time2 = ((Entry)entry2).m_sortTime;
+          return (time1 < time2) ? -1 : ((time1 == time2) ? 0 : 1);
+          }
+        });
+      long targetEntries = maxEntries - (maxEntries / 10);
+      long targetBytes = maxBytes - (maxBytes / 10);
+      for (int i = 0; (i < entries.length)
+            && ((entryCount > targetEntries) || (m_residentBytes.get() > targetBytes)); i++)
+        if (evict(entries[i]))
+          entryCount--;
+      }
+    }
+
+
+  /**
+   * Remove the given entry, unless it's already gone, and return whether I
+   * did.
+   *
+   * @param entry the entry to evict
+   * @return whether it was evicted
+   */
+  private boolean evict(Entry entry)
+    {
+    if (!m_entries.remove(entry.m_filePath, entry))
+      return false;
+    synchronized (entry)
       {
-      Long date = (Long)(m_files.get(DATE, index));
-      if ((date == null) || (date.longValue() != file.lastModified()))
-        m_files.set(DATE, index, new Long(file.lastModified()));
-      else
-        return m_files.get(OBJECT, index);
+      entry.m_evicted = true;
+      m_residentBytes.addAndGet(-entry.m_size);
       }
-    else
+    m_evictionCount.incrementAndGet();
+    return true;
+    }
+
+
+  /**
+   * Stop trusting the cached copies of the file at 'path', or, if it's null,
+   * of every file in the directory 'directory', or, if that's null too, of
+   * every file, so they're checked on their next access.
+   *
+   * @param directory a directory, or null
+   * @param path a file's absolute path, or null
+   */
+  private void invalidate(Path directory, Path path)
+    {
+    for (Iterator i = m_entries.values().iterator(); i.hasNext(); )
       {
-      index = m_files.add(filePath) - 1;
-      m_files.set(DATE, new Long(file.lastModified()));
+      Entry entry = (Entry)(i.next());
+      Path entryPath = entry.m_path;
+      if ((directory == null)
+            || ((entryPath != null) && ((path != null) ? path.equals(entryPath)
+            : directory.equals(entryPath.getParent()))))
+        entry.m_watched = false;
       }
-    Object object = readFile(file);
-    m_files.set(OBJECT, index, object);
-    return object;
     }
 
 
   /**
    * Read the given file from disk, and return an object representing it.
-   * For this implementation, return a String containing the file's ASCII
-   * contents.  (An XML-file implementation might return a DOM object
-   * instead.)
+   * For this implementation, return a String containing the file's text,
+   * decoded in my charset.  (An XML-file implementation might return a DOM
+   * object instead.)
    *
    * @param file a File to be read
    * @return an object representing the file's contents
    */
   protected Object readFile(File file) throws Exception
     {
-    FileReader reader = new FileReader(file);
-    StringWriter writer = new StringWriter(2024);
-    int character = -1;
-    while ((character = reader.read()) != -1)
-      writer.write(character);
-    return writer.toString();
+    return new String(readBytes(file), m_charset);
+    }
+
+
+  /**
+   * Return an estimate of the memory, in bytes, taken by 'object', which was
+   * read from 'file'.  Strings and byte arrays are measured; anything else
+   * is guessed to take twice the file's size, so subclasses caching other
+   * kinds of objects should override this to do better.
+   *
+   * @param file the File the object was read from
+   * @param object the object
+   * @return its estimated size, in bytes
+   */
+  protected long estimateSize(File file, Object object)
+    {
+    if (object instanceof String)
+      return 40 + 2 * (long)((String)object).length();
+    if (object instanceof byte[])
+      return 16 + ((byte[])object).length;
+    return 2 * file.length();
+    }
+
+
+  /**
+   * Read the whole of the given file into an array, in as few calls as
+   * possible, memory-mapping it if it's at least the map threshold in size.
+   * If the file shrinks while it's read, only what's left is returned.  A
+   * file bigger than my byte capacity could never be cached, so it isn't
+   * read at all.
+   *
+   * @param file a File to be read
+   * @return the file's bytes
+   */
+  protected byte[] readBytes(File file) throws IOException
+    {
+    FileInputStream input = new FileInputStream(file);
+    try
+      {
+      FileChannel channel = input.getChannel();
+      long size = channel.size();
+      if ((size > Integer.MAX_VALUE) || (ENTRY_OVERHEAD + size > m_maxBytes))
+        throw new IOException("The file '" + file.getPath() + "' is too big to cache:  "
+              + size + " bytes, with room for " + m_maxBytes + ".");
+      byte[] bytes = new byte[(int)size];
+      if (size >= m_mapThreshold)
+        {
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(bytes);
+        return bytes;
+        }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining() && (channel.read(buffer) != -1))
+        ;
+      if (buffer.hasRemaining())
+        {
+        byte[] shorter = new byte[buffer.position()];
+        System.arraycopy(bytes, 0, shorter, 0, shorter.length);
+        return shorter;
+        }
+      return bytes;
+      }
+    finally
+      {
+      input.close();
+      }
+    }
+
+
+
+  /**
+   * One file's cached contents, as read at the given timestamp, along with
+   * its text as last encoded.  The contents never change, so a thread can
+   * read them without a lock; the encoding is replaced whole, if a different
+   * charset is asked for.
+   */
+  private static class Contents extends Object
+    {
+
+    final Entry             m_entry;
+    final long              m_date;
+    final Object            m_object;
+    volatile Encoding       m_encoding = null;
+
+
+    Contents(Entry entry, long date, Object object)
+      {
+      m_entry = entry;
+      m_date = date;
+      m_object = object;
+      }
+
+    }
+
+
+
+  /**
+   * A file's text encoded in one charset.
+   */
+  private static class Encoding extends Object
+    {
+
+    final Charset   m_charset;
+    final byte[]    m_bytes;
+
+
+    Encoding(Charset charset, byte[] bytes)
+      {
+      m_charset = charset;
+      m_bytes = bytes;
+      }
+
+
+    long getSize()
+      {
+      return 16 + m_bytes.length;
+      }
+
+    }
+
+
+
+  /**
+   * The cache entry for one file:  its latest contents, if it has been read,
+   * when its timestamp was last checked, whether it's watched and nothing has
+   * changed since, when it was last used, its estimated size, and its counts.
+   * Only one thread at a time reads the file, holding the entry's lock; the
+   * size, and whether the entry has been evicted, are guarded by it too.
+   */
+  private class Entry extends Object
+    {
+
+    final String        m_filePath;
+    volatile Contents   m_contents = null;
+    volatile Path       m_path = null;
+    volatile long       m_checkedTime = 0;
+    volatile boolean    m_watched = false;
+    volatile long       m_lastAccess = System.nanoTime();
+    long                m_sortTime = 0;
+    long                m_size = 0;
+    boolean             m_evicted = false;
+    AtomicLong          m_hitCount = new AtomicLong();
+    AtomicLong          m_missCount = new AtomicLong();
+    AtomicLong          m_reloadCount = new AtomicLong();
+
+
+    Entry(String filePath)
+      {
+      m_filePath = filePath;
+      }
+
+
+    /**
+     * Count a request answered from the cache, and note when it was.
+     */
+    void recordHit()
+      {
+      m_lastAccess = System.nanoTime();
+      m_hitCount.incrementAndGet();
+      FileCache.this.m_hitCount.incrementAndGet();
+      }
+
+
+    /**
+     * Return whether my contents can be returned without checking the file,
+     * because it's watched and hasn't changed, or it was checked recently.
+     */
+    boolean getIsTrusted()
+      {
+      if (m_watched && (m_watcher != null))
+        return true;
+      long checkInterval = m_checkInterval;
+      return ((checkInterval > 0) && (System.nanoTime() - m_checkedTime < checkInterval * 1000000));
+      }
+
+
+    /**
+     * Return my file's contents, first reading it if they're missing or
+     * older than the file on disk.  The file is watched before its timestamp
+     * is read, so a change made after that is never missed.
+     */
+    Contents getContents(File file) throws Exception
+      {
+      Watcher watcher = m_watcher;
+      if (watcher != null)
+        {
+        if (m_path == null)
+          m_path = file.getAbsoluteFile().toPath().normalize();
+        m_watched = watcher.watch(m_path.getParent());
+        }
+      m_checkedTime = System.nanoTime();
+      long date = file.lastModified();
+      Contents contents = m_contents;
+      if ((contents != null) && (contents.m_date == date))
+        {
+        recordHit();
+        return contents;
+        }
+      synchronized (this)
+        {
+        contents = m_contents;
+        if ((contents != null) && (contents.m_date == date))
+          {
+          recordHit();
+          return contents;
+          }
+        m_lastAccess = System.nanoTime();
+        if (contents == null)
+          {
+          m_missCount.incrementAndGet();
+          FileCache.this.m_missCount.incrementAndGet();
+          }
+        else
+          {
+          m_reloadCount.incrementAndGet();
+          FileCache.this.m_reloadCount.incrementAndGet();
+          }
+        contents = new Contents(this, date, readFile(file));
+        long size = ENTRY_OVERHEAD + 2 * m_filePath.length() + estimateSize(file, contents.m_object);
+        if (size > m_maxBytes)
+          {
+          m_contents = null;
+          resize(0);
+          return contents;
+          }
+        m_contents = contents;
+        resize(size);
+        }
+      evictIfNeeded();
+      return contents;
+      }
+
+
+    /**
+     * Encode the text of 'contents' in 'charset', keep the encoding with
+     * them, and return it, counting its size if they're still my contents.
+     */
+    byte[] encode(Contents contents, Charset charset)
+      {
+      Encoding encoding = new Encoding(charset, ((String)contents.m_object).getBytes(charset));
+      synchronized (this)
+        {
+        Encoding oldEncoding = contents.m_encoding;
+        contents.m_encoding = encoding;
+        if (contents == m_contents)
+          resize(m_size + encoding.getSize() - ((oldEncoding != null) ? oldEncoding.getSize() : 0));
+        }
+      evictIfNeeded();
+      return encoding.m_bytes;
+      }
+
+
+    /**
+     * Set my estimated size, adding the change to the cache's resident bytes
+     * unless I've been evicted.  My lock must be held.
+     */
+    void resize(long size)
+      {
+      if (!m_evicted)
+        m_residentBytes.addAndGet(size - m_size);
+      m_size = size;
+      }
+
+    }
+
+
+
+  /**
+   * The thread waiting on a WatchService for changes in the directories of
+   * cached files, and invalidating the files that changed.
+   */
+  private class Watcher extends Thread
+    {
+
+    private WatchService    m_service = null;
+    private ConcurrentMap   m_directories = new ConcurrentHashMap();
+
+
+    Watcher(WatchService service)
+      {
+      super("FileCache-watcher");
+      setDaemon(true);
+      m_service = service;
+      }
+
+
+    /**
+     * Watch the given directory, unless I already am.  Return whether I am.
+     */
+    boolean watch(Path directory)
+      {
+      if (m_directories.containsKey(directory))
+        return true;
+      synchronized (this)
+        {
+        if (m_directories.containsKey(directory))
+          return true;
+        try
+          {
+          m_directories.put(directory, directory.register(m_service,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE));
+          return true;
+          }
+        catch (IOException exception)
+          {
+          return false;
+          }
+        catch (ClosedWatchServiceException exception)
+          {
+          return false;
+          }
+        }
+      }
+
+
+    public void run()
+      {
+      try
+        {
+        while (true)
+          {
+          WatchKey key = m_service.take();
+          Path directory = (Path)(key.watchable());
+          for (Iterator i = key.pollEvents().iterator(); i.hasNext(); )
+            {
+            WatchEvent event = (WatchEvent)(i.next());
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+              invalidate(directory, null);
+            else
+              invalidate(directory, directory.resolve((Path)(event.context())));
+            }
+          if (!key.reset())
+            {
+            m_directories.remove(directory);
+            invalidate(directory, null);
+            }
+          }
+        }
+      catch (InterruptedException ignored) { }
+      catch (ClosedWatchServiceException ignored) { }
+      }
+
+
+    /**
+     * Stop watching, and close the WatchService.
+     */
+    void close()
+      {
+      try { m_service.close(); }
+      catch (IOException ignored) { }
+      }
+
+    }
+
+
+
+  /**
+   * The counts of how each request for one file was answered:  from the
+   * cache (a hit), by reading it for the first time (a miss), or by rereading
+   * it after it changed on disk (a reload).
+   */
+  public static class Statistics extends Object
+    {
+
+    private long    m_hitCount = 0;
+    private long    m_missCount = 0;
+    private long    m_reloadCount = 0;
+
+
+    Statistics(long hitCount, long missCount, long reloadCount)
+      {
+      m_hitCount = hitCount;
+      m_missCount = missCount;
+      m_reloadCount = reloadCount;
+      }
+
+
+    /**
+     * Return how many times the file was answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount()
+      {
+      return m_hitCount;
+      }
+
+
+    /**
+     * Return how many times the file was read because it wasn't cached.
+     *
+     * @return the miss count
+     */
+    public long getMissCount()
+      {
+      return m_missCount;
+      }
+
+
+    /**
+     * Return how many times the file was reread because it had changed.
+     *
+     * @return the reload count
+     */
+    public long getReloadCount()
+      {
+      return m_reloadCount;
+      }
+
+
+    /**
+     * Return a simple string representation of this object.
+     *
+     * @return myself as a string
+     */
+    public String toString()
+      {
+      return m_hitCount + " hits, " + m_missCount + " misses, " + m_reloadCount + " reloads";
+      }
+
     }
 
   }